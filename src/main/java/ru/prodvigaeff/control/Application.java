@@ -2,8 +2,11 @@ package ru.prodvigaeff.control;
 
 import ru.prodvigaeff.control.core.module.ModuleRegistry;
 import ru.prodvigaeff.control.core.scheduler.Timer;
+import ru.prodvigaeff.control.http.HttpUtil;
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanEmployeeDirectory;
 import ru.prodvigaeff.control.modules.cache.CacheCleanupModule;
+import ru.prodvigaeff.control.modules.cache.EmployeeDirectoryModule;
 import ru.prodvigaeff.control.modules.closedtasktime.ClosedTaskTimeAuditModule;
 import ru.prodvigaeff.control.modules.commentquality.CommentQualityAuditModule;
 import ru.prodvigaeff.control.modules.taskhierarchy.TaskHierarchyAuditModule;
@@ -47,6 +50,12 @@ public class Application
 
             setupShutdownHook();
 
+            Logger.info("Открываем соединения к Megaplan...");
+            HttpUtil.warmUp(MegaplanTask.getBaseUrl(), EnvUtil.getInt("HTTP_POOL_WARMUP_CONNECTIONS", 4));
+
+            Logger.info("Загружаем справочник сотрудников...");
+            MegaplanEmployeeDirectory.preload();
+
             Logger.info("Запускаем планировщик...");
             Timer.start();
 
@@ -118,6 +127,7 @@ public class Application
             ModuleRegistry.register(new ClosedTaskTimeAuditModule(emailSender));
 
             ModuleRegistry.register(new CacheCleanupModule());
+            ModuleRegistry.register(new EmployeeDirectoryModule());
 
             int moduleCount = ModuleRegistry.getModuleCount();
             Logger.success("Зарегистрировано модулей: " + moduleCount);
@@ -155,6 +165,9 @@ public class Application
             Logger.info("Останавливаем MegaplanTask executor...");
             MegaplanTask.shutdown();
 
+            Logger.info("Закрываем HTTP соединения...");
+            HttpUtil.shutdown();
+
             Logger.info("Очищаем кеши...");
             MegaplanTask.clearEmployeeCache();
 
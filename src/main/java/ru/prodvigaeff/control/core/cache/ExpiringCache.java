@@ -0,0 +1,199 @@
+package ru.prodvigaeff.control.core.cache;
+
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * LRU-кеш с ограничением размера и временем жизни записей. Запись, к которой обращаются
+ * после refreshAfterMs, перезагружается в фоне, пока вызывающий получает текущее значение.
+ */
+public class ExpiringCache<K, V>
+{
+    private final String name;
+    private final int maxSize;
+    private final long ttlMs;
+    private final long refreshAfterMs;
+    private final Function<K, V> loader;
+    private final Executor refreshExecutor;
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    public ExpiringCache(String name, int maxSize, long ttlMs, long refreshAfterMs,
+                         Function<K, V> loader, Executor refreshExecutor)
+    {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.refreshAfterMs = refreshAfterMs;
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public V get(K key)
+    {
+        Entry<V> entry;
+        boolean refresh = false;
+        long now = System.currentTimeMillis();
+
+        synchronized (entries)
+        {
+            entry = entries.get(key);
+
+            if (entry != null && now - entry.loadedAt >= ttlMs)
+            {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+
+            if (entry == null)
+            {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+
+            if (refreshAfterMs > 0 && now - entry.loadedAt >= refreshAfterMs && !entry.refreshing)
+            {
+                entry.refreshing = true;
+                refresh = true;
+            }
+        }
+
+        if (refresh) scheduleRefresh(key, entry);
+
+        return entry.value;
+    }
+
+    public boolean containsKey(K key)
+    {
+        synchronized (entries)
+        {
+            Entry<V> entry = entries.get(key);
+            return entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMs;
+        }
+    }
+
+    public void put(K key, V value)
+    {
+        if (value == null) return;
+
+        synchronized (entries)
+        {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+
+            while (entries.size() > maxSize)
+            {
+                Iterator<K> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public int cleanUp()
+    {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+
+        synchronized (entries)
+        {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext())
+            {
+                if (now - iterator.next().getValue().loadedAt >= ttlMs)
+                {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+
+        expirations.addAndGet(removed);
+        return removed;
+    }
+
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    public String getStats()
+    {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        double hitRatio = total == 0 ? 0 : hitCount * 100.0 / total;
+
+        return String.format("%s: размер %d/%d, попадания %d, промахи %d (%.1f%% попаданий), вытеснено %d, истекло %d, обновлено в фоне %d",
+                name, size(), maxSize, hitCount, misses.get(), hitRatio, evictions.get(), expirations.get(), refreshes.get());
+    }
+
+    private void scheduleRefresh(K key, Entry<V> entry)
+    {
+        try
+        {
+            refreshExecutor.execute(() -> {
+                try
+                {
+                    V value = loader.apply(key);
+                    if (value != null)
+                    {
+                        put(key, value);
+                        refreshes.incrementAndGet();
+                    }
+                }
+                catch (Exception e)
+                {
+                    Logger.warn("Не удалось обновить запись кеша " + name + " (" + key + "): " + e.getMessage());
+                }
+                finally
+                {
+                    entry.refreshing = false;
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            entry.refreshing = false;
+        }
+    }
+
+    private static class Entry<V>
+    {
+        private final V value;
+        private final long loadedAt;
+        private volatile boolean refreshing;
+
+        private Entry(V value, long loadedAt)
+        {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
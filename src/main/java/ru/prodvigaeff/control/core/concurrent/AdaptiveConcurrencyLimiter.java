@@ -0,0 +1,237 @@
+package ru.prodvigaeff.control.core.concurrent;
+
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ограничитель числа одновременных запросов по схеме AIMD: лимит растет на единицу за каждые
+ * limit успешных ответов без роста задержки и резко снижается при перегрузке (429/503)
+ * или когда задержка заметно превышает базовую. Базовая задержка своя для каждого вида запросов:
+ * страница из сотни задач и одиночный GET отвечают за разное время и не должны сравниваться друг с другом.
+ */
+public class AdaptiveConcurrencyLimiter
+{
+    private static final double OVERLOAD_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.8;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_ALPHA = 0.05;
+    private static final int HISTORY_SIZE = 20;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private int limit;
+    private int inFlight;
+    private int successesSinceIncrease;
+    private final Map<String, Double> baselineLatencyMs = new LinkedHashMap<>();
+    private long lastDecreaseAt;
+    private final Deque<String> history = new ArrayDeque<>();
+
+    // Не synchronized/wait: ожидание внутри монитора закрепляет виртуальный поток за несущим
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotAvailable = lock.newCondition();
+    private final Deque<CompletableFuture<Void>> asyncWaiters = new ArrayDeque<>();
+
+    private final AtomicLong increases = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+    private final AtomicLong overloads = new AtomicLong();
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit)
+    {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecreaseAt = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            while (inFlight >= limit) slotAvailable.await();
+            inFlight++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Неблокирующий вариант acquire: future завершается, когда слот выделен. Слот нужно вернуть через release.
+     */
+    public CompletableFuture<Void> acquireAsync()
+    {
+        lock.lock();
+        try
+        {
+            if (inFlight < limit && asyncWaiters.isEmpty())
+            {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            asyncWaiters.addLast(waiter);
+            return waiter;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public void release()
+    {
+        List<CompletableFuture<Void>> granted;
+
+        lock.lock();
+        try
+        {
+            inFlight--;
+            granted = grantAsyncWaiters();
+            slotAvailable.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    // Вызывается под блокировкой; завершать future нужно уже после нее, чтобы продолжения не выполнялись под lock
+    private List<CompletableFuture<Void>> grantAsyncWaiters()
+    {
+        if (asyncWaiters.isEmpty()) return List.of();
+
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        while (inFlight < limit && !asyncWaiters.isEmpty())
+        {
+            inFlight++;
+            granted.add(asyncWaiters.pollFirst());
+        }
+
+        return granted;
+    }
+
+    /**
+     * Учитывает результат одной попытки запроса. requestClass - вид запроса, задержка сравнивается с базовой
+     * только этого вида. startedAt - System.nanoTime() начала попытки: ответы на запросы, отправленные
+     * до последнего снижения, лимит повторно не снижают.
+     */
+    public void onSample(String requestClass, long startedAt, long latencyMs, int statusCode)
+    {
+        List<CompletableFuture<Void>> granted;
+
+        lock.lock();
+        try
+        {
+            recordSample(requestClass, startedAt, latencyMs, statusCode);
+            granted = grantAsyncWaiters();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    private void recordSample(String requestClass, long startedAt, long latencyMs, int statusCode)
+    {
+        if (statusCode == 429 || statusCode == 503)
+        {
+            overloads.incrementAndGet();
+            if (startedAt - lastDecreaseAt > 0) decrease(OVERLOAD_DECREASE, "HTTP " + statusCode);
+            return;
+        }
+
+        if (statusCode <= 0 || statusCode >= 500) return;
+
+        Double baseline = baselineLatencyMs.get(requestClass);
+        if (baseline == null)
+        {
+            baselineLatencyMs.put(requestClass, (double) latencyMs);
+            return;
+        }
+
+        // Базовая задержка учитывает и медленные ответы, чтобы постоянный сдвиг не снижал лимит бесконечно
+        baselineLatencyMs.put(requestClass, baseline + BASELINE_ALPHA * (latencyMs - baseline));
+
+        if (latencyMs > baseline * LATENCY_TOLERANCE)
+        {
+            if (startedAt - lastDecreaseAt > 0)
+                decrease(LATENCY_DECREASE, String.format("%s: задержка %d мс при базовой %.0f мс", requestClass, latencyMs, baseline));
+            return;
+        }
+
+        // Растем только если лимит действительно используется, иначе он ничего не ограничивает
+        if (inFlight * 2 < limit || limit >= maxLimit) return;
+
+        if (++successesSinceIncrease >= limit)
+        {
+            successesSinceIncrease = 0;
+            changeLimit(limit + 1, "задержка стабильна");
+            increases.incrementAndGet();
+        }
+    }
+
+    private void decrease(double factor, String reason)
+    {
+        successesSinceIncrease = 0;
+        lastDecreaseAt = System.nanoTime();
+
+        int newLimit = Math.max(minLimit, (int) (limit * factor));
+        if (newLimit == limit) return;
+
+        changeLimit(newLimit, reason);
+        decreases.incrementAndGet();
+    }
+
+    private void changeLimit(int newLimit, String reason)
+    {
+        String change = LocalTime.now().format(TIME_FORMAT) + " " + limit + "->" + newLimit + " (" + reason + ")";
+        Logger.debug(name + ": лимит параллельности " + change);
+
+        history.addLast(change);
+        if (history.size() > HISTORY_SIZE) history.removeFirst();
+
+        limit = newLimit;
+        slotAvailable.signalAll();
+    }
+
+    public String getStats()
+    {
+        lock.lock();
+        try
+        {
+            List<String> baselines = new ArrayList<>();
+            baselineLatencyMs.forEach((requestClass, baseline) -> baselines.add(String.format("%s %.0f мс", requestClass, baseline)));
+
+            return String.format("%s: лимит %d [%d..%d], в работе %d, в очереди %d, базовая задержка: %s, повышений %d, снижений %d, перегрузок %d, история: %s",
+                    name, limit, minLimit, maxLimit, inFlight, asyncWaiters.size(), baselines.isEmpty() ? "нет данных" : String.join(", ", baselines),
+                    increases.get(), decreases.get(), overloads.get(), history.isEmpty() ? "без изменений" : String.join("; ", history));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ru.prodvigaeff.control.core.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничитель частоты по алгоритму token bucket: разрешения пополняются с заданной скоростью,
+ * накопленный запас до burst позволяет пропустить всплеск запросов без ожидания.
+ */
+public class RateLimiter
+{
+    private final String name;
+    private final double permitsPerSecond;
+    private final double burst;
+
+    private double tokens;
+    private long refilledAt;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+
+    public RateLimiter(String name, double permitsPerSecond, int burst)
+    {
+        this.name = name;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Ждет разрешения на один запрос. Возвращает время ожидания в миллисекундах.
+     */
+    public long acquire() throws InterruptedException
+    {
+        long waitNanos = reserve();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Занимает разрешение без ожидания и возвращает, через сколько наносекунд его можно использовать.
+     * Для асинхронных вызовов, которые откладывают запрос по таймеру вместо сна.
+     */
+    public long reserve()
+    {
+        if (permitsPerSecond <= 0) return 0;
+
+        long waitNanos = reserveNanos();
+        acquired.incrementAndGet();
+
+        if (waitNanos > 0)
+        {
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+            delayed.incrementAndGet();
+            totalWaitMs.addAndGet(waitMs);
+            maxWaitMs.accumulateAndGet(waitMs, Math::max);
+        }
+
+        return waitNanos;
+    }
+
+    // Разрешение берется сразу, даже в долг: следующий вызывающий подождет, пока долг не покроется
+    private synchronized long reserveNanos()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+
+        tokens -= 1;
+        if (tokens >= 0) return 0;
+
+        return (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    public String getStats()
+    {
+        long count = acquired.get();
+        long waited = delayed.get();
+        long avgWait = waited == 0 ? 0 : totalWaitMs.get() / waited;
+
+        return String.format("%s: лимит %.1f/с (запас %d), запросов %d, ожидали %d, суммарное ожидание %d мс, среднее %d мс, максимум %d мс",
+                name, permitsPerSecond, (int) burst, count, waited, totalWaitMs.get(), avgWait, maxWaitMs.get());
+    }
+}
@@ -0,0 +1,97 @@
+package ru.prodvigaeff.control.core.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Объединяет одновременные запросы по одному ключу: первый вызов выполняет загрузку,
+ * остальные ждут его результат вместо повторного запроса.
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public V execute(K key, Supplier<V> loader)
+    {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null)
+        {
+            coalesced.incrementAndGet();
+            return await(existing);
+        }
+
+        executed.incrementAndGet();
+        try
+        {
+            V value = loader.get();
+            future.complete(value);
+            return value;
+        }
+        catch (Throwable e)
+        {
+            // Ожидающие должны завершиться при любой ошибке загрузчика, иначе они зависнут навсегда
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Асинхронный вариант: загрузчик возвращает future, поток не блокируется ни у владельца, ни у ожидающих.
+     */
+    public CompletableFuture<V> executeAsync(K key, Supplier<CompletableFuture<V>> loader)
+    {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null)
+        {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        executed.incrementAndGet();
+        try
+        {
+            loader.get().whenComplete((value, error) -> {
+                inFlight.remove(key, future);
+                if (error != null) future.completeExceptionally(error);
+                else future.complete(value);
+            });
+        }
+        catch (Throwable e)
+        {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    public long getExecutedCount() { return executed.get(); }
+    public long getCoalescedCount() { return coalesced.get(); }
+
+    private V await(CompletableFuture<V> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+}
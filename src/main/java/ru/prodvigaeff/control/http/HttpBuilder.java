@@ -1,5 +1,7 @@
 package ru.prodvigaeff.control.http;
 
+import java.util.concurrent.CompletableFuture;
+
 public class HttpBuilder
 {
     private HttpRequest request;
@@ -44,13 +46,34 @@ public class HttpBuilder
         return this;
     }
     
+    public HttpBuilder retryPolicy(RetryPolicy retryPolicy)
+    {
+        request.setRetryPolicy(retryPolicy);
+        return this;
+    }
+    
+    /**
+     * POST повторяется только если явно помечен идемпотентным (повторная отправка ничего не меняет на сервере).
+     */
+    public HttpBuilder idempotent(boolean idempotent)
+    {
+        request.setIdempotent(idempotent);
+        return this;
+    }
+    
+    public HttpBuilder onAttempt(HttpRequest.AttemptListener listener)
+    {
+        request.setAttemptListener(listener);
+        return this;
+    }
+    
     public HttpResponse execute()
     {
         return HttpUtil.execute(request);
     }
 
-    public HttpResponse executeWithRetry(int maxRetries)
+    public CompletableFuture<HttpResponse> executeAsync()
     {
-        return HttpUtil.executeWithRetry(request, maxRetries);
+        return HttpUtil.executeAsync(request);
     }
 }
\ No newline at end of file
@@ -9,17 +9,24 @@ public class HttpRequest
     private String method;
     private Map<String, String> headers = new HashMap<>();
     private String body;
+    private AttemptListener attemptListener;
+    private RetryPolicy retryPolicy;
+    private boolean idempotent;
     
     public HttpRequest(String url, String method)
     {
         this.url = url;
         this.method = method;
+        this.idempotent = "GET".equals(method);
     }
     
     public String getUrl() { return url; }
     public String getMethod() { return method; }
     public Map<String, String> getHeaders() { return headers; }
     public String getBody() { return body; }
+    public AttemptListener getAttemptListener() { return attemptListener; }
+    public RetryPolicy getRetryPolicy() { return retryPolicy; }
+    public boolean isIdempotent() { return idempotent; }
     
     public HttpRequest addHeader(String key, String value)
     {
@@ -32,4 +39,30 @@ public class HttpRequest
         this.body = body;
         return this;
     }
+
+    public HttpRequest setRetryPolicy(RetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public HttpRequest setIdempotent(boolean idempotent)
+    {
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    public HttpRequest setAttemptListener(AttemptListener attemptListener)
+    {
+        this.attemptListener = attemptListener;
+        return this;
+    }
+
+    /**
+     * Получает результат каждой попытки, включая повторные. statusCode = 0, если ответа не было.
+     */
+    public interface AttemptListener
+    {
+        void onAttempt(long startedAt, long latencyMs, int statusCode);
+    }
 }
\ No newline at end of file
@@ -1,21 +1,47 @@
 package ru.prodvigaeff.control.http;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 public class HttpResponse
 {
+    private static final byte[] EMPTY = new byte[0];
+
     private final int statusCode;
-    private final String body;
+    private final byte[] body;
+    private final Charset charset;
+    private final String retryAfter;
+    private String bodyText;
     
     public HttpResponse(int statusCode, String body)
+    {
+        this(statusCode, body != null ? body.getBytes(StandardCharsets.UTF_8) : null, StandardCharsets.UTF_8, null);
+        this.bodyText = body;
+    }
+    
+    public HttpResponse(int statusCode, byte[] body, Charset charset, String retryAfter)
     {
         this.statusCode = statusCode;
-        this.body = body;
+        this.body = body != null ? body : EMPTY;
+        this.charset = charset != null ? charset : StandardCharsets.UTF_8;
+        this.retryAfter = retryAfter;
     }
     
     public int getStatusCode() { return statusCode; }
-    public String getBody() { return body; }
+    public String getRetryAfter() { return retryAfter; }
+    
+    // JSON разбирается прямо из байтов; строка собирается только если ее кто-то попросил
+    public String getBody()
+    {
+        if (bodyText == null) bodyText = new String(body, charset);
+        return bodyText;
+    }
+    
+    public byte[] getBodyBytes() { return body; }
+    public Charset getCharset() { return charset; }
     
     public boolean isSuccess()
     {
         return statusCode >= 200 && statusCode < 300;
     }
-}
\ No newline at end of file
+}
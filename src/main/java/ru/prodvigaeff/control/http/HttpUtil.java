@@ -1,36 +1,121 @@
 package ru.prodvigaeff.control.http;
 
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
 
+import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class HttpUtil
 {
-    private static final CloseableHttpClient client = HttpClients.createDefault();
-    private static final int DEFAULT_MAX_RETRIES = EnvUtil.getInt("HTTP_MAX_RETRIES", 3);
-    private static final int DEFAULT_RETRY_DELAY_MS = EnvUtil.getInt("HTTP_RETRY_DELAY_MS", 1000);
+    private static final int MAX_CONNECTIONS = EnvUtil.getInt("HTTP_MAX_CONNECTIONS", 50);
+    private static final int MAX_CONNECTIONS_PER_ROUTE = EnvUtil.getInt("HTTP_MAX_CONNECTIONS_PER_ROUTE", 20);
+    private static final int CONNECT_TIMEOUT_MS = EnvUtil.getInt("HTTP_CONNECT_TIMEOUT_MS", 5000);
+    private static final int SOCKET_TIMEOUT_MS = EnvUtil.getInt("HTTP_SOCKET_TIMEOUT_MS", 120000);
+    private static final int CONNECTION_REQUEST_TIMEOUT_MS = EnvUtil.getInt("HTTP_CONNECTION_REQUEST_TIMEOUT_MS", 30000);
+    private static final int KEEP_ALIVE_SECONDS = EnvUtil.getInt("HTTP_KEEP_ALIVE_SECONDS", 30);
+    private static final int IDLE_EVICT_SECONDS = EnvUtil.getInt("HTTP_IDLE_EVICT_SECONDS", 60);
+    private static final int ASYNC_IO_THREADS = EnvUtil.getInt("HTTP_ASYNC_IO_THREADS", 1);
+
+    private static final String LEASE_STARTED_AT = "prodvigaeff.lease.startedAt";
+    private static final AtomicLong leases = new AtomicLong();
+    private static final AtomicLong totalLeaseWaitMs = new AtomicLong();
+    private static final AtomicLong maxLeaseWaitMs = new AtomicLong();
+
+    private static final PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(MAX_CONNECTIONS)
+            .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setConnectTimeout(Timeout.ofMilliseconds(CONNECT_TIMEOUT_MS))
+                    .setSocketTimeout(Timeout.ofMilliseconds(SOCKET_TIMEOUT_MS))
+                    .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                    .build())
+            .build();
+
+    // Выдача соединения из пула происходит в звене CONNECT: засекаем время до него и после
+    private static final CloseableHttpClient client = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .disableAutomaticRetries()
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(Timeout.ofMilliseconds(CONNECTION_REQUEST_TIMEOUT_MS))
+                    .setResponseTimeout(Timeout.ofMilliseconds(SOCKET_TIMEOUT_MS))
+                    .setDefaultKeepAlive(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+                    .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(IDLE_EVICT_SECONDS))
+            .addExecInterceptorBefore(ChainElement.CONNECT.name(), "lease-start", (request, scope, chain) -> {
+                scope.clientContext.setAttribute(LEASE_STARTED_AT, System.nanoTime());
+                return chain.proceed(request, scope);
+            })
+            .addExecInterceptorAfter(ChainElement.CONNECT.name(), "lease-wait", (request, scope, chain) -> {
+                Object startedAt = scope.clientContext.getAttribute(LEASE_STARTED_AT);
+                if (startedAt != null) recordLeaseWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - (Long) startedAt));
+                return chain.proceed(request, scope);
+            })
+            .build();
+
+    // Асинхронный клиент поднимает свой IO reactor, поэтому создается только при первом асинхронном запросе
+    private static volatile CloseableHttpAsyncClient asyncClient;
+
+    // Политика для запросов без своей: бюджет повторов считается за все время работы
+    private static final RetryPolicy defaultRetryPolicy = RetryPolicy.fromEnv("HTTP");
 
     public static HttpResponse execute(HttpRequest request)
     {
-        return executeWithRetry(request, DEFAULT_MAX_RETRIES);
-    }
+        RetryPolicy retryPolicy = getRetryPolicy(request);
+        retryPolicy.recordRequest();
 
-    public static HttpResponse executeWithRetry(HttpRequest request, int maxRetries)
-    {
-        Exception lastException = null;
+        Exception lastException;
+        int attempt = 0;
 
-        for (int attempt = 1; attempt <= maxRetries; attempt++)
+        while (true)
         {
+            attempt++;
+            long startedAt = System.nanoTime();
             try
             {
                 Logger.debugRequest(request.getMethod(), request.getUrl(), request.getBody());
@@ -44,75 +129,315 @@ public class HttpUtil
                     ((HttpPost) httpRequest).setEntity(entity);
                 }
 
+                // Тело остается байтами: JSON разбирается из них без промежуточной строки
                 HttpResponse response = client.execute(httpRequest, httpResponse -> {
-                    int statusCode = httpResponse.getCode();
-                    String body = EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8);
-                    return new HttpResponse(statusCode, body);
+                    HttpEntity entity = httpResponse.getEntity();
+                    byte[] body = entity != null ? EntityUtils.toByteArray(entity) : null;
+                    Header retryAfter = httpResponse.getFirstHeader("Retry-After");
+                    return new HttpResponse(httpResponse.getCode(), body,
+                            getCharset(entity != null ? ContentType.parseLenient(entity.getContentType()) : null),
+                            retryAfter != null ? retryAfter.getValue() : null);
                 });
 
-                Logger.debugResponse(response.getStatusCode(), response.getBody());
+                notifyAttempt(request, startedAt, response.getStatusCode());
+                Logger.debugResponse(response.getStatusCode(), response.getBodyBytes(), response.getCharset());
 
-                if (shouldRetry(response.getStatusCode(), attempt, maxRetries))
-                {
-                    Logger.warn("HTTP " + response.getStatusCode() + " для " + request.getUrl() +
-                            ". Повтор " + attempt + "/" + maxRetries);
-                    sleepBeforeRetry(attempt);
-                    continue;
-                }
+                if (!RetryPolicy.isRetryableStatus(response.getStatusCode())) return response;
 
-                return response;
+                long delayMs = retryPolicy.nextDelayMs(request, attempt, response.getRetryAfter());
+                if (delayMs < 0) return response;
+
+                Logger.warn("HTTP " + response.getStatusCode() + " для " + request.getUrl() +
+                        ". Повтор через " + delayMs + " мс (попытка " + attempt + "/" + retryPolicy.getMaxAttempts() + ")");
+                sleepBeforeRetry(delayMs);
+                continue;
+            }
+            catch (HttpRequestException e)
+            {
+                // Прерывание во время задержки: повторы прекращаются
+                throw e;
             }
             catch (UnknownHostException e)
             {
                 lastException = e;
-                Logger.error("Хост недоступен: " + request.getUrl() + ". Попытка " + attempt + "/" + maxRetries);
+                notifyAttempt(request, startedAt, 0);
+                Logger.error("Хост недоступен: " + request.getUrl() + ". Попытка " + attempt + "/" + retryPolicy.getMaxAttempts());
             }
             catch (SocketTimeoutException e)
             {
                 lastException = e;
-                Logger.error("Таймаут соединения для " + request.getUrl() + ". Попытка " + attempt + "/" + maxRetries);
+                notifyAttempt(request, startedAt, 0);
+                Logger.error("Таймаут соединения для " + request.getUrl() + ". Попытка " + attempt + "/" + retryPolicy.getMaxAttempts());
             }
             catch (Exception e)
             {
                 lastException = e;
+                notifyAttempt(request, startedAt, 0);
                 Logger.error("HTTP ошибка для " + request.getUrl() + ": " + e.getMessage() +
-                        ". Попытка " + attempt + "/" + maxRetries);
+                        ". Попытка " + attempt + "/" + retryPolicy.getMaxAttempts());
+            }
+
+            long delayMs = retryPolicy.nextDelayMs(request, attempt, null);
+            if (delayMs < 0) break;
+
+            sleepBeforeRetry(delayMs);
+        }
+
+        Logger.error("HTTP запрос не выполнен после " + attempt + " попыток: " + request.getUrl());
+        throw new HttpRequestException("Не удалось выполнить HTTP запрос после " + attempt + " попыток", lastException);
+    }
+
+    /**
+     * Неблокирующий аналог execute: поток не ждет ответа, повтор планируется по таймеру.
+     */
+    public static CompletableFuture<HttpResponse> executeAsync(HttpRequest request)
+    {
+        RetryPolicy retryPolicy = getRetryPolicy(request);
+        retryPolicy.recordRequest();
+
+        return executeAsyncAttempt(request, retryPolicy, 1);
+    }
+
+    private static CompletableFuture<HttpResponse> executeAsyncAttempt(HttpRequest request, RetryPolicy retryPolicy, int attempt)
+    {
+        Logger.debugRequest(request.getMethod(), request.getUrl(), request.getBody());
+
+        long startedAt = System.nanoTime();
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+
+        getAsyncClient().execute(createAsyncRequest(request), new FutureCallback<SimpleHttpResponse>()
+        {
+            @Override
+            public void completed(SimpleHttpResponse response)
+            {
+                Header retryAfter = response.getFirstHeader("Retry-After");
+                result.complete(new HttpResponse(response.getCode(), response.getBodyBytes(),
+                        getCharset(response.getContentType()), retryAfter != null ? retryAfter.getValue() : null));
+            }
+
+            @Override
+            public void failed(Exception e)
+            {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled()
+            {
+                result.cancel(false);
+            }
+        });
+
+        return result.handle((response, error) -> {
+            notifyAttempt(request, startedAt, response != null ? response.getStatusCode() : 0);
+
+            long delayMs;
+            if (response != null)
+            {
+                Logger.debugResponse(response.getStatusCode(), response.getBodyBytes(), response.getCharset());
+
+                if (!RetryPolicy.isRetryableStatus(response.getStatusCode())) return CompletableFuture.completedFuture(response);
+
+                delayMs = retryPolicy.nextDelayMs(request, attempt, response.getRetryAfter());
+                if (delayMs < 0) return CompletableFuture.completedFuture(response);
+
+                Logger.warn("HTTP " + response.getStatusCode() + " для " + request.getUrl() +
+                        ". Повтор через " + delayMs + " мс (попытка " + attempt + "/" + retryPolicy.getMaxAttempts() + ")");
+            }
+            else
+            {
+                Logger.error("HTTP ошибка для " + request.getUrl() + ": " + error.getMessage() +
+                        ". Попытка " + attempt + "/" + retryPolicy.getMaxAttempts());
+
+                delayMs = retryPolicy.nextDelayMs(request, attempt, null);
+                if (delayMs < 0)
+                {
+                    Logger.error("HTTP запрос не выполнен после " + attempt + " попыток: " + request.getUrl());
+                    return CompletableFuture.<HttpResponse>failedFuture(
+                            new HttpRequestException("Не удалось выполнить HTTP запрос после " + attempt + " попыток", error));
+                }
+            }
+
+            Executor delay = CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS);
+            return CompletableFuture.runAsync(() -> {}, delay)
+                    .thenCompose(ignored -> executeAsyncAttempt(request, retryPolicy, attempt + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    private static SimpleHttpRequest createAsyncRequest(HttpRequest request)
+    {
+        SimpleRequestBuilder builder = switch (request.getMethod()) {
+            case "GET" -> SimpleRequestBuilder.get(request.getUrl());
+            case "POST" -> SimpleRequestBuilder.post(request.getUrl());
+            default -> throw new IllegalArgumentException("Неподдерживаемый HTTP метод: " + request.getMethod());
+        };
+
+        String contentType = null;
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet())
+        {
+            // Content-Type передается вместе с телом, иначе заголовок задвоится
+            if ("Content-Type".equalsIgnoreCase(header.getKey())) contentType = header.getValue();
+            else builder.addHeader(header.getKey(), header.getValue());
+        }
+
+        if (request.getBody() != null)
+        {
+            ContentType type = ContentType.parse(contentType != null ? contentType : "text/plain").withCharset(StandardCharsets.UTF_8);
+            builder.setBody(request.getBody(), type);
+        }
+
+        return builder.build();
+    }
+
+    private static CloseableHttpAsyncClient getAsyncClient()
+    {
+        CloseableHttpAsyncClient current = asyncClient;
+        if (current != null) return current;
+
+        synchronized (HttpUtil.class)
+        {
+            if (asyncClient == null)
+            {
+                // HTTP/2 согласуется через ALPN, если сервер его поддерживает: запросы к хосту идут потоками одного соединения
+                PoolingAsyncClientConnectionManager asyncConnectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(MAX_CONNECTIONS)
+                        .setMaxConnPerRoute(MAX_CONNECTIONS_PER_ROUTE)
+                        .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                .setConnectTimeout(Timeout.ofMilliseconds(CONNECT_TIMEOUT_MS))
+                                .setSocketTimeout(Timeout.ofMilliseconds(SOCKET_TIMEOUT_MS))
+                                .build())
+                        .setDefaultTlsConfig(TlsConfig.custom()
+                                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                                .build())
+                        .build();
+
+                CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                        .setConnectionManager(asyncConnectionManager)
+                        .disableAutomaticRetries()
+                        .setDefaultRequestConfig(RequestConfig.custom()
+                                .setConnectionRequestTimeout(Timeout.ofMilliseconds(CONNECTION_REQUEST_TIMEOUT_MS))
+                                .setResponseTimeout(Timeout.ofMilliseconds(SOCKET_TIMEOUT_MS))
+                                .setDefaultKeepAlive(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+                                .build())
+                        .setIOReactorConfig(IOReactorConfig.custom()
+                                .setIoThreadCount(ASYNC_IO_THREADS)
+                                .build())
+                        .evictExpiredConnections()
+                        .evictIdleConnections(TimeValue.ofSeconds(IDLE_EVICT_SECONDS))
+                        .build();
+
+                client.start();
+                asyncClient = client;
+                Logger.debug("Асинхронный HTTP клиент запущен, IO потоков: " + ASYNC_IO_THREADS);
             }
 
-            if (attempt < maxRetries)
+            return asyncClient;
+        }
+    }
+
+    /**
+     * Заранее открывает соединения к хосту, чтобы первые запросы не тратили время на TCP и TLS.
+     */
+    public static void warmUp(String url, int connections)
+    {
+        if (connections <= 0) return;
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService warmUpExecutor = Executors.newFixedThreadPool(connections);
+        AtomicInteger opened = new AtomicInteger();
+
+        try
+        {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < connections; i++)
             {
-                sleepBeforeRetry(attempt);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try
+                    {
+                        client.execute(new HttpGet(url), response -> {
+                            EntityUtils.consume(response.getEntity());
+                            return null;
+                        });
+                        opened.incrementAndGet();
+                    }
+                    catch (Exception e)
+                    {
+                        Logger.debug("Не удалось открыть соединение к " + url + ": " + e.getMessage());
+                    }
+                }, warmUpExecutor));
             }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        }
+        finally
+        {
+            warmUpExecutor.shutdown();
         }
 
-        Logger.error("HTTP запрос не выполнен после " + maxRetries + " попыток: " + request.getUrl());
+        Logger.debug("Прогрев пула соединений к " + url + ": " + opened.get() + "/" + connections +
+                " за " + (System.currentTimeMillis() - startTime) + " мс");
+    }
+
+    public static String getPoolStats()
+    {
+        PoolStats stats = connectionManager.getTotalStats();
+        long leaseCount = leases.get();
+        long avgWait = leaseCount == 0 ? 0 : totalLeaseWaitMs.get() / leaseCount;
+
+        return String.format("Пул HTTP соединений: занято %d, свободно %d, ожидают %d, максимум %d (на хост %d), выдач %d, ожидание соединения среднее %d мс, максимум %d мс",
+                stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax(), MAX_CONNECTIONS_PER_ROUTE,
+                leaseCount, avgWait, maxLeaseWaitMs.get());
+    }
+
+    public static void shutdown()
+    {
+        try
+        {
+            client.close();
+            connectionManager.close();
 
-        if (lastException != null)
+            if (asyncClient != null) asyncClient.close(CloseMode.GRACEFUL);
+        }
+        catch (IOException e)
         {
-            throw new HttpRequestException("Не удалось выполнить HTTP запрос после " + maxRetries + " попыток", lastException);
+            Logger.warn("Ошибка закрытия HTTP клиента: " + e.getMessage());
         }
+    }
 
-        return new HttpResponse(500, "Ошибка подключения после " + maxRetries + " попыток");
+    private static void recordLeaseWait(long waitMs)
+    {
+        leases.incrementAndGet();
+        totalLeaseWaitMs.addAndGet(waitMs);
+        maxLeaseWaitMs.accumulateAndGet(waitMs, Math::max);
+    }
+
+    private static void notifyAttempt(HttpRequest request, long startedAt, int statusCode)
+    {
+        HttpRequest.AttemptListener listener = request.getAttemptListener();
+        if (listener != null)
+            listener.onAttempt(startedAt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), statusCode);
     }
 
-    private static boolean shouldRetry(int statusCode, int attempt, int maxRetries)
+    private static Charset getCharset(ContentType contentType)
     {
-        if (attempt >= maxRetries) return false;
+        return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+    }
 
-        return statusCode >= 500 || statusCode == 429 || statusCode == 408 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    private static RetryPolicy getRetryPolicy(HttpRequest request)
+    {
+        return request.getRetryPolicy() != null ? request.getRetryPolicy() : defaultRetryPolicy;
     }
 
-    private static void sleepBeforeRetry(int attempt)
+    private static void sleepBeforeRetry(long delayMs)
     {
         try
         {
-            int delay = DEFAULT_RETRY_DELAY_MS * (int) Math.pow(2, attempt - 1);
-            Thread.sleep(delay);
+            Thread.sleep(delayMs);
         }
         catch (InterruptedException e)
         {
             Thread.currentThread().interrupt();
-            Logger.warn("Прервана задержка перед повтором HTTP запроса");
+            throw new HttpRequestException("Повтор HTTP запроса прерван", e);
         }
     }
 
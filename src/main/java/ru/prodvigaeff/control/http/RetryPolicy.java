@@ -0,0 +1,157 @@
+package ru.prodvigaeff.control.http;
+
+import ru.prodvigaeff.control.utils.EnvUtil;
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Политика повторов одного клиента: экспоненциальная задержка с полным джиттером, учет Retry-After
+ * и бюджет повторов - за прогон повторяется не больше заданной доли запросов.
+ * Повторяются только идемпотентные запросы.
+ */
+public class RetryPolicy
+{
+    private final String name;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int budgetPercent;
+    private final int minBudget;
+
+    private long requests;
+    private long retries;
+    private long rejectedByBudget;
+    private long retryAfterHonoured;
+
+    public RetryPolicy(String name, int maxAttempts, long baseDelayMs, long maxDelayMs, int budgetPercent, int minBudget)
+    {
+        this.name = name;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.budgetPercent = budgetPercent;
+        this.minBudget = minBudget;
+    }
+
+    public static RetryPolicy fromEnv(String name)
+    {
+        return fromEnv(name, EnvUtil.getInt("HTTP_MAX_RETRIES", 3));
+    }
+
+    public static RetryPolicy fromEnv(String name, int maxAttempts)
+    {
+        return new RetryPolicy(name, maxAttempts,
+                EnvUtil.getInt("HTTP_RETRY_DELAY_MS", 1000),
+                EnvUtil.getInt("HTTP_RETRY_MAX_DELAY_MS", 30000),
+                EnvUtil.getInt("HTTP_RETRY_BUDGET_PERCENT", 20),
+                EnvUtil.getInt("HTTP_RETRY_BUDGET_MIN", 5));
+    }
+
+    public static boolean isRetryableStatus(int statusCode)
+    {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public synchronized void recordRequest()
+    {
+        requests++;
+    }
+
+    /**
+     * Задержка перед следующей попыткой в миллисекундах или -1, если повторять нельзя:
+     * попытки исчерпаны, запрос неидемпотентный, Retry-After дольше допустимого или кончился бюджет.
+     */
+    public long nextDelayMs(HttpRequest request, int attempt, String retryAfter)
+    {
+        if (attempt >= maxAttempts || !request.isIdempotent()) return -1;
+
+        long retryAfterMs = parseRetryAfterMs(retryAfter);
+        if (retryAfterMs > maxDelayMs)
+        {
+            Logger.warn(name + ": сервер просит подождать " + retryAfterMs + " мс, это дольше " + maxDelayMs + " мс, не повторяем");
+            return -1;
+        }
+
+        if (!acquireRetry(retryAfterMs >= 0)) return -1;
+
+        if (retryAfterMs >= 0) return retryAfterMs;
+
+        // Полный джиттер: случайная задержка от нуля до экспоненциального потолка разводит одновременные повторы
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Повтор на уровне вызывающего кода (например, невалидный ответ), расходует тот же бюджет.
+     */
+    public boolean tryRetry()
+    {
+        return acquireRetry(false);
+    }
+
+    public synchronized void resetBudget()
+    {
+        requests = 0;
+        retries = 0;
+        rejectedByBudget = 0;
+        retryAfterHonoured = 0;
+    }
+
+    public synchronized String getStats()
+    {
+        return String.format("%s: запросов %d, повторов %d из бюджета %d, отклонено бюджетом %d, по Retry-After %d",
+                name, requests, retries, getBudget(), rejectedByBudget, retryAfterHonoured);
+    }
+
+    private synchronized boolean acquireRetry(boolean byRetryAfter)
+    {
+        if (retries >= getBudget())
+        {
+            if (rejectedByBudget++ == 0)
+                Logger.warn(name + ": исчерпан бюджет повторов (" + getBudget() + " на " + requests + " запросов)");
+            return false;
+        }
+
+        retries++;
+        if (byRetryAfter) retryAfterHonoured++;
+        return true;
+    }
+
+    private long getBudget()
+    {
+        return Math.max(minBudget, requests * budgetPercent / 100);
+    }
+
+    // Retry-After бывает числом секунд или HTTP-датой
+    private static long parseRetryAfterMs(String retryAfter)
+    {
+        if (retryAfter == null || retryAfter.isBlank()) return -1;
+
+        try
+        {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        }
+        catch (NumberFormatException ignored)
+        {
+        }
+
+        try
+        {
+            ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import ru.prodvigaeff.control.http.HttpResponse;
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.utils.Logger;
+import ru.prodvigaeff.control.utils.StringUtil;
+
+public class MegaplanEmployeeDirectory
+{
+    private static final int PAGE_SIZE = 100;
+    private static final String EMPLOYEE_FIELDS = "[\"id\",\"name\",\"position\",\"department\",\"contactInfo\"]";
+
+    public static int preload()
+    {
+        long startTime = System.currentTimeMillis();
+        Logger.debug("Загружаем справочник сотрудников...");
+
+        int loaded = 0;
+        int pages = 0;
+        String pageAfter = null;
+
+        try
+        {
+            while (true)
+            {
+                MegaplanJsonReader.Page<Task.Employee> page = fetchEmployeePage(pageAfter);
+                if (page == null || page.size == 0) break;
+
+                pages++;
+                for (Task.Employee employee : page.items)
+                {
+                    if (StringUtil.isEmpty(employee.getId())) continue;
+
+                    MegaplanTask.cacheEmployee(employee);
+                    loaded++;
+                }
+
+                String cursor = page.lastId;
+                if (page.size < PAGE_SIZE || cursor == null || cursor.equals(pageAfter)) break;
+
+                pageAfter = cursor;
+            }
+        }
+        catch (Exception e)
+        {
+            Logger.error("Ошибка загрузки справочника сотрудников: " + e.getMessage());
+        }
+
+        if (loaded > MegaplanTask.getEmployeeCacheSize())
+        {
+            Logger.warn("Справочник сотрудников (" + loaded + ") больше кеша (" + MegaplanTask.getEmployeeCacheSize() +
+                    "), увеличьте EMPLOYEE_CACHE_MAX_SIZE");
+        }
+
+        Logger.debug("Справочник сотрудников загружен: " + loaded + " сотрудников, страниц: " + pages +
+                ", время: " + (System.currentTimeMillis() - startTime) + " мс");
+
+        return loaded;
+    }
+
+    private static MegaplanJsonReader.Page<Task.Employee> fetchEmployeePage(String pageAfter)
+    {
+        String baseUrl = MegaplanTask.getBaseUrl();
+
+        String jsonParam;
+        if (pageAfter != null)
+            jsonParam = "{\"limit\":" + PAGE_SIZE + ",\"pageAfter\":{\"contentType\":\"Employee\",\"id\":\"" + pageAfter + "\"},\"fields\":" + EMPLOYEE_FIELDS + "}";
+        else
+            jsonParam = "{\"limit\":" + PAGE_SIZE + ",\"fields\":" + EMPLOYEE_FIELDS + "}";
+
+        HttpResponse response = MegaplanTask.requestMegaplan(baseUrl + "/api/v3/employee?" + StringUtil.urlEncode(jsonParam));
+
+        if (!response.isSuccess())
+        {
+            Logger.error("Ошибка получения страницы сотрудников (после " + pageAfter + "): " + response.getStatusCode());
+            return null;
+        }
+
+        return MegaplanJsonReader.readEmployeePage(response.getBodyBytes());
+    }
+}
@@ -0,0 +1,447 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.utils.DateUtil;
+import ru.prodvigaeff.control.utils.JsonUtil;
+import ru.prodvigaeff.control.utils.Logger;
+import ru.prodvigaeff.control.utils.StringUtil;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Потоковый разбор ответов Megaplan API: задачи, комментарии и сотрудники собираются за один проход
+ * по токенам, без промежуточных Map/List. Поля, которые не используются, пропускаются целиком.
+ */
+class MegaplanJsonReader
+{
+    private static final String NO_EMAIL = "не найдено";
+    private static final String COMPANY_DOMAIN = "prodvigaeff.ru";
+
+    private static final AtomicLong responses = new AtomicLong();
+    private static final AtomicLong objects = new AtomicLong();
+    private static final AtomicLong bytes = new AtomicLong();
+    private static final AtomicLong parseNanos = new AtomicLong();
+
+    /**
+     * Страница списка: size - число объектов в data, включая пропущенные, lastId - курсор следующей страницы.
+     */
+    static class Page<T>
+    {
+        final List<T> items = new ArrayList<>();
+        int size;
+        String lastId;
+    }
+
+    private interface ElementReader<T>
+    {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    static Page<Task> readTaskPage(byte[] json)
+    {
+        return readPage(json, MegaplanJsonReader::readTask, Task::getId);
+    }
+
+    static Task readTask(byte[] json)
+    {
+        return readData(json, MegaplanJsonReader::readTask);
+    }
+
+    static List<Task.TaskComment> readComments(byte[] json, String taskId)
+    {
+        return readPage(json, parser -> readComment(parser, taskId), Task.TaskComment::getId).items;
+    }
+
+    static Page<Task.Employee> readEmployeePage(byte[] json)
+    {
+        return readPage(json, MegaplanJsonReader::readEmployee, Task.Employee::getId);
+    }
+
+    static Task.Employee readEmployee(byte[] json)
+    {
+        return readData(json, MegaplanJsonReader::readEmployee);
+    }
+
+    static String getStats()
+    {
+        long count = responses.get();
+        long ms = TimeUnit.NANOSECONDS.toMillis(parseNanos.get());
+
+        return String.format("Разбор JSON Megaplan: ответов %d, объектов %d, %d КБ за %d мс, в среднем %.2f мс на ответ",
+                count, objects.get(), bytes.get() / 1024, ms, count == 0 ? 0.0 : parseNanos.get() / 1_000_000.0 / count);
+    }
+
+    private static <T> Page<T> readPage(byte[] json, ElementReader<T> reader, Function<T, String> idOf)
+    {
+        long startedAt = System.nanoTime();
+        Page<T> page = new Page<>();
+
+        try (JsonParser parser = JsonUtil.createParser(json))
+        {
+            if (moveToData(parser) == JsonToken.START_ARRAY)
+            {
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                {
+                    T item = reader.read(parser);
+                    page.size++;
+                    page.lastId = item != null ? idOf.apply(item) : null;
+                    if (item != null) page.items.add(item);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new JsonUtil.JsonProcessingException("Не удалось разобрать ответ Megaplan", e);
+        }
+
+        record(json, page.size, startedAt);
+        return page;
+    }
+
+    private static <T> T readData(byte[] json, ElementReader<T> reader)
+    {
+        long startedAt = System.nanoTime();
+
+        try (JsonParser parser = JsonUtil.createParser(json))
+        {
+            T item = moveToData(parser) == JsonToken.START_OBJECT ? reader.read(parser) : null;
+            record(json, item != null ? 1 : 0, startedAt);
+            return item;
+        }
+        catch (IOException e)
+        {
+            throw new JsonUtil.JsonProcessingException("Не удалось разобрать ответ Megaplan", e);
+        }
+    }
+
+    private static void record(byte[] json, int count, long startedAt)
+    {
+        responses.incrementAndGet();
+        objects.addAndGet(count);
+        bytes.addAndGet(json.length);
+        parseNanos.addAndGet(System.nanoTime() - startedAt);
+    }
+
+    // Остальная часть ответа (meta и т.п.) не читается вовсе
+    private static JsonToken moveToData(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("data".equals(field)) return value;
+
+            parser.skipChildren();
+        }
+
+        return null;
+    }
+
+    private static Task readTask(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String id = null;
+        String name = null;
+        String status = null;
+        Task.Employee owner = null;
+        Task.Employee responsible = null;
+        LocalDateTime timeCreated = null;
+        LocalDateTime activity = null;
+        double plannedHours = 0.0;
+        double actualHours = 0.0;
+        List<String> subtaskIds = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field)
+            {
+                case "id" -> id = readString(parser);
+                case "name" -> name = readString(parser);
+                case "status" -> status = readString(parser);
+                // Полные данные сотрудников подставляются позже, одним проходом для всей страницы
+                case "owner" -> owner = readEmployee(parser);
+                case "responsible" -> responsible = readEmployee(parser);
+                case "timeCreated" -> timeCreated = readDateTime(parser);
+                case "activity" -> activity = readDateTime(parser);
+                case "plannedWork" -> plannedHours = readWorkHours(parser);
+                case "actualWork" -> actualHours = readWorkHours(parser);
+                case "subTasks" -> subtaskIds = readIds(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        if (StringUtil.isEmpty(id))
+        {
+            Logger.warn("Задача без ID, пропускаем");
+            return null;
+        }
+
+        Task task = new Task(id, name, status, owner, responsible);
+        task.setTimeCreated(timeCreated);
+        task.setActivity(activity);
+        task.setPlannedWorkHours(plannedHours);
+        task.setActualWorkHours(actualHours);
+        if (subtaskIds != null) task.setSubtaskIds(subtaskIds);
+
+        return task;
+    }
+
+    private static Task.TaskComment readComment(JsonParser parser, String taskId) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String id = null;
+        String content = null;
+        String authorId = null;
+        LocalDateTime commentDate = null;
+        LocalDateTime workDate = null;
+        double workHours = 0.0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field)
+            {
+                case "id" -> id = readString(parser);
+                case "content" -> content = StringUtil.cleanHtml(readString(parser));
+                case "owner" -> authorId = readId(parser);
+                case "timeCreated" -> commentDate = readDateTime(parser);
+                case "workDate" -> workDate = readDateTime(parser);
+                case "workTime" -> workHours = readWorkHours(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        Task.Employee author = authorId != null ? new Task.Employee(authorId, null, null, null) : null;
+        return new Task.TaskComment(id, content, author, commentDate, workDate, workHours, taskId);
+    }
+
+    private static Task.Employee readEmployee(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String id = null;
+        String name = null;
+        String position = null;
+        String email = null;
+        Task.Department department = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field)
+            {
+                case "id" -> id = readString(parser);
+                case "name" -> name = readString(parser);
+                case "position" -> position = readString(parser);
+                case "contactInfo" -> email = readEmail(parser);
+                case "department" -> department = readDepartment(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        return new Task.Employee(id, name, email != null ? email : NO_EMAIL, position, department);
+    }
+
+    private static Task.Department readDepartment(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String id = null;
+        String name = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch (field)
+            {
+                case "id" -> id = readString(parser);
+                case "name" -> name = readString(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        return id != null && name != null ? new Task.Department(id, name) : null;
+    }
+
+    // Первый корпоративный email из контактов; порядок полей type/value в объекте не важен
+    private static String readEmail(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_ARRAY)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String email = null;
+
+        while (parser.nextToken() != JsonToken.END_ARRAY)
+        {
+            if (parser.currentToken() != JsonToken.START_OBJECT)
+            {
+                parser.skipChildren();
+                continue;
+            }
+
+            String type = null;
+            String value = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.currentName();
+                parser.nextToken();
+
+                switch (field)
+                {
+                    case "type" -> type = readString(parser);
+                    case "value" -> value = readString(parser);
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (email == null && "email".equals(type) && StringUtil.isNotEmpty(value)
+                    && StringUtil.isValidCompanyEmail(value, COMPANY_DOMAIN))
+            {
+                email = value;
+            }
+        }
+
+        return email;
+    }
+
+    private static List<String> readIds(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_ARRAY)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        List<String> ids = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY)
+        {
+            String id = readId(parser);
+            if (id != null) ids.add(id);
+        }
+
+        return ids;
+    }
+
+    private static String readId(JsonParser parser) throws IOException
+    {
+        return readField(parser, "id");
+    }
+
+    private static LocalDateTime readDateTime(JsonParser parser) throws IOException
+    {
+        String value = readField(parser, "value");
+        if (value == null) return null;
+
+        try
+        {
+            return DateUtil.parseIsoToMsk(value);
+        }
+        catch (Exception e)
+        {
+            Logger.error("Ошибка парсинга даты: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Megaplan отдает длительность в секундах
+    private static double readWorkHours(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return 0.0;
+        }
+
+        double hours = 0.0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            if ("value".equals(field) && parser.currentToken().isNumeric())
+                hours = parser.getDoubleValue() / 3600.0;
+            else
+                parser.skipChildren();
+        }
+
+        return hours;
+    }
+
+    // Строковое поле вложенного объекта вида {"id": ...} или {"value": ...}
+    private static String readField(JsonParser parser, String name) throws IOException
+    {
+        if (parser.currentToken() != JsonToken.START_OBJECT)
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        String value = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            if (name.equals(field))
+                value = readString(parser);
+            else
+                parser.skipChildren();
+        }
+
+        return value;
+    }
+
+    private static String readString(JsonParser parser) throws IOException
+    {
+        if (parser.currentToken().isStructStart())
+        {
+            parser.skipChildren();
+            return null;
+        }
+
+        return parser.getValueAsString();
+    }
+}
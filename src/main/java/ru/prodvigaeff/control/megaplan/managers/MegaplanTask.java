@@ -1,10 +1,17 @@
 package ru.prodvigaeff.control.megaplan.managers;
 
+import ru.prodvigaeff.control.core.cache.ExpiringCache;
+import ru.prodvigaeff.control.core.concurrent.AdaptiveConcurrencyLimiter;
+import ru.prodvigaeff.control.core.concurrent.RateLimiter;
+import ru.prodvigaeff.control.core.concurrent.SingleFlight;
 import ru.prodvigaeff.control.http.HttpBuilder;
+import ru.prodvigaeff.control.http.HttpRequest;
 import ru.prodvigaeff.control.http.HttpResponse;
+import ru.prodvigaeff.control.http.HttpUtil;
+import ru.prodvigaeff.control.http.RetryPolicy;
 import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.model.TaskGraph;
 import ru.prodvigaeff.control.utils.EnvUtil;
-import ru.prodvigaeff.control.utils.JsonUtil;
 import ru.prodvigaeff.control.utils.Logger;
 import ru.prodvigaeff.control.utils.StringUtil;
 
@@ -12,309 +19,317 @@ import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-@SuppressWarnings("unchecked")
 public class MegaplanTask
 {
+    private static final String DEFAULT_URL = "https://prodvigaeff.megaplan.ru";
     private static final String MEGAPLAN_API_KEY = EnvUtil.get("MEGAPLAN_API_KEY");
-    private static final int BATCH_SIZE = EnvUtil.getInt("MEGAPLAN_BATCH_SIZE", 50);
     private static final int THREAD_POOL_SIZE = EnvUtil.getInt("MEGAPLAN_THREAD_POOL_SIZE", 10);
-    private static final ExecutorService executor = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-
-    private static final Map<String, Task.Employee> employeeCache = new ConcurrentHashMap<>();
-
-    private static void loadCommentsForTasks(List<Task> tasks)
+    private static final int SUBTASK_DEPTH = EnvUtil.getInt("MEGAPLAN_SUBTASK_DEPTH", 3);
+    private static final int MAX_TASKS = EnvUtil.getInt("MEGAPLAN_MAX_TASKS", 5000);
+    private static final boolean VIRTUAL_THREADS = EnvUtil.getBoolean("MEGAPLAN_VIRTUAL_THREADS", false);
+    private static final int MAX_IN_FLIGHT = EnvUtil.getInt("MEGAPLAN_MAX_IN_FLIGHT", 200);
+    private static final boolean ASYNC_HTTP = EnvUtil.getBoolean("MEGAPLAN_ASYNC_HTTP", false);
+    private static final ExecutorService virtualExecutor = VIRTUAL_THREADS ? createVirtualThreadExecutor() : null;
+    // Каждая задача - отдельная единица работы, свободные потоки забирают их из очередей занятых
+    private static final ExecutorService executor = virtualExecutor != null
+            ? virtualExecutor
+            : Executors.newWorkStealingPool(THREAD_POOL_SIZE);
+
+    private static final int PAGE_SIZE = 100;
+    private static final String TASK_SORT = "[{\"contentType\":\"SortField\",\"fieldName\":\"activity\",\"desc\":true}]";
+    private static final String TASK_FIELDS = "[\"id\",\"name\",\"status\",\"owner\",\"responsible\",\"subTasks\",\"timeCreated\",\"activity\",\"plannedWork\",\"actualWork\"]";
+
+    private static final ExpiringCache<String, Task.Employee> employeeCache = new ExpiringCache<>(
+            "Сотрудники",
+            EnvUtil.getInt("EMPLOYEE_CACHE_MAX_SIZE", 2000),
+            TimeUnit.MINUTES.toMillis(EnvUtil.getInt("EMPLOYEE_CACHE_TTL_MINUTES", 480)),
+            TimeUnit.MINUTES.toMillis(EnvUtil.getInt("EMPLOYEE_CACHE_REFRESH_MINUTES", 360)),
+            MegaplanTask::requestEmployee,
+            executor);
+    private static final SingleFlight<String, Task.Employee> employeeLookups = new SingleFlight<>();
+    private static final SingleFlight<String, Task> taskLookups = new SingleFlight<>();
+
+    // Общий лимит частоты для всех запросов к Megaplan независимо от числа потоков
+    private static final RateLimiter rateLimiter = new RateLimiter(
+            "Megaplan API",
+            EnvUtil.getInt("MEGAPLAN_RATE_LIMIT_PER_SECOND", 20),
+            EnvUtil.getInt("MEGAPLAN_RATE_LIMIT_BURST", 20));
+
+    private static final RetryPolicy retryPolicy = RetryPolicy.fromEnv("Megaplan API");
+
+    // Сколько запросов реально идет параллельно, подстраивается под задержку и ответы 429/503
+    private static final AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+            "Megaplan API",
+            EnvUtil.getInt("MEGAPLAN_CONCURRENCY_INITIAL", 4),
+            EnvUtil.getInt("MEGAPLAN_CONCURRENCY_MIN", 1),
+            virtualExecutor != null || ASYNC_HTTP ? MAX_IN_FLIGHT : THREAD_POOL_SIZE);
+
+    // Виртуальные потоки есть только с Java 21, а проект собирается и под 17, поэтому создаем через рефлексию
+    private static ExecutorService createVirtualThreadExecutor()
     {
-        if (tasks.isEmpty()) return;
-
-        Logger.debug("Загружаем комментарии для " + tasks.size() + " задач...");
-
-        List<List<Task>> batches = createBatches(tasks, BATCH_SIZE);
-
-        List<CompletableFuture<Void>> futures = batches.stream()
-                .map(batch -> CompletableFuture.runAsync(() -> processBatch(batch), executor))
-                .collect(Collectors.toList());
-
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-
-        Logger.debug("Комментарии загружены для всех задач");
-    }
-
-    private static void processBatch(List<Task> batch)
-    {
-        for (Task task : batch)
+        try
         {
-            try
-            {
-                List<Task.TaskComment> comments = getTaskComments(task.getId());
-                task.setComments(comments);
-            }
-            catch (Exception e)
-            {
-                Logger.error("Ошибка получения комментариев для задачи " + task.getId() + ": " + e.getMessage());
-                task.setComments(new ArrayList<>());
-            }
+            ExecutorService service = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Logger.info("MegaplanTask: загрузка на виртуальных потоках, одновременных запросов не больше " + MAX_IN_FLIGHT);
+            return service;
         }
-    }
-
-    private static <T> List<List<T>> createBatches(List<T> items, int batchSize)
-    {
-        List<List<T>> batches = new ArrayList<>();
-        for (int i = 0; i < items.size(); i += batchSize)
+        catch (ReflectiveOperationException e)
         {
-            int end = Math.min(i + batchSize, items.size());
-            batches.add(new ArrayList<>(items.subList(i, end)));
+            Logger.warn("Виртуальные потоки недоступны (нужна Java 21+), используем пул из " + THREAD_POOL_SIZE + " потоков");
+            return null;
         }
-        return batches;
     }
 
-    private static String buildTaskUrl(String pageAfter)
+    public static String getBaseUrl()
     {
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
-        String endpoint = baseUrl + "/api/v3/task?";
-
-        String jsonParam;
-
-        if (pageAfter != null)
-            jsonParam = "{\"limit\":100,\"pageAfter\":{\"contentType\":\"Task\",\"id\":\"" + pageAfter + "\"},\"fields\":[\"id\",\"name\",\"status\",\"owner\",\"responsible\",\"subTasks\",\"timeCreated\",\"activity\",\"plannedWork\",\"actualWork\"]}";
-        else
-            jsonParam = "{\"limit\":100,\"fields\":[\"id\",\"name\",\"status\",\"owner\",\"responsible\",\"subTasks\",\"timeCreated\",\"activity\",\"plannedWork\",\"actualWork\"]}";
-
-        return endpoint + StringUtil.urlEncode(jsonParam);
+        return EnvUtil.get("MEGAPLAN_URL", DEFAULT_URL);
     }
 
-    public static List<Task.TaskComment> getTaskComments(String taskId)
+    static HttpResponse requestMegaplan(String url)
     {
-        if (StringUtil.isEmpty(taskId))
+        // Сначала разрешение по частоте, потом слот: ожидание лимита не должно занимать слот параллельности
+        try
         {
-            Logger.warn("Пустой ID задачи для получения комментариев");
-            return new ArrayList<>();
+            long waitMs = rateLimiter.acquire();
+            if (waitMs > 100) Logger.debug("Ожидание лимита запросов Megaplan: " + waitMs + " мс");
         }
-
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
-        String endpoint = baseUrl + "/api/v3/task/" + taskId + "/comments";
-
-        HttpResponse response = HttpBuilder
-                .get(endpoint)
-                .auth(MEGAPLAN_API_KEY)
-                .execute();
-
-        if (!response.isSuccess())
+        catch (InterruptedException e)
         {
-            Logger.error("Ошибка получения комментариев для задачи " + taskId + ": " + response.getStatusCode());
-            return new ArrayList<>();
+            Thread.currentThread().interrupt();
+            return new HttpResponse(503, "Ожидание лимита запросов прервано");
         }
 
         try
         {
-            Map<String, Object> jsonResponse = JsonUtil.fromJson(response.getBody(), Map.class);
-            List<Map<String, Object>> commentsData = (List) jsonResponse.get("data");
-
-            if (commentsData == null) return new ArrayList<>();
-
-            List<Task.TaskComment> comments = new ArrayList<>();
-            for (Map<String, Object> commentData : commentsData)
-            {
-                Task.TaskComment comment = parseComment(commentData, taskId);
-                if (comment != null) comments.add(comment);
-            }
+            concurrencyLimiter.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return new HttpResponse(503, "Ожидание слота запроса прервано");
+        }
 
-            return comments;
+        try
+        {
+            return HttpBuilder
+                    .get(url)
+                    .auth(MEGAPLAN_API_KEY)
+                    .retryPolicy(retryPolicy)
+                    .onAttempt(sampleListener(url))
+                    .execute();
         }
-        catch (Exception e)
+        finally
         {
-            Logger.error("Ошибка парсинга комментариев для задачи " + taskId + ": " + e.getMessage());
-            return new ArrayList<>();
+            concurrencyLimiter.release();
         }
     }
 
-    private static Task parseTask(Map<String, Object> taskData)
+    private static HttpRequest.AttemptListener sampleListener(String url)
     {
-        try
-        {
-            String id = (String) taskData.get("id");
-            String name = (String) taskData.get("name");
-            String status = (String) taskData.get("status");
+        String requestClass = requestClass(url);
+        return (startedAt, latencyMs, statusCode) -> concurrencyLimiter.onSample(requestClass, startedAt, latencyMs, statusCode);
+    }
 
-            if (StringUtil.isEmpty(id))
-            {
-                Logger.warn("Задача без ID, пропускаем");
-                return null;
-            }
+    // Вид запроса - путь без ID: task, task/{id}, task/{id}/comments, employee, employee/{id}
+    private static String requestClass(String url)
+    {
+        int query = url.indexOf('?');
+        String path = query >= 0 ? url.substring(0, query) : url;
 
-            // Получаем базовую информацию
-            Task.Employee owner = parseEmployee((Map) taskData.get("owner"));
-            Task.Employee responsible = parseEmployee((Map) taskData.get("responsible"));
+        int api = path.indexOf("/api/v3/");
+        String[] segments = (api >= 0 ? path.substring(api + "/api/v3/".length()) : path).split("/");
+        for (int i = 1; i < segments.length; i += 2) segments[i] = "{id}";
 
-            // Дозагружаем полную информацию с департаментом
-            if (owner != null && owner.getId() != null)
-            {
-                Task.Employee fullOwner = getEmployeeById(owner.getId());
-                if (fullOwner != null) owner = fullOwner;
-            }
+        return String.join("/", segments);
+    }
 
-            if (responsible != null && responsible.getId() != null)
-            {
-                Task.Employee fullResponsible = getEmployeeById(responsible.getId());
-                if (fullResponsible != null) responsible = fullResponsible;
-            }
+    /**
+     * Запрос для массовых загрузок. В режиме MEGAPLAN_ASYNC_HTTP поток не занимается на время ответа:
+     * слот лимита и разрешение выдаются через future, а запрос уходит через асинхронный клиент.
+     */
+    static CompletableFuture<HttpResponse> requestMegaplanAsync(String url)
+    {
+        if (!ASYNC_HTTP) return CompletableFuture.supplyAsync(() -> requestMegaplan(url), executor);
+
+        // Как и в синхронном пути, слот берется только после разрешения по частоте
+        Executor delay = CompletableFuture.delayedExecutor(rateLimiter.reserve(), TimeUnit.NANOSECONDS);
+
+        return CompletableFuture.runAsync(() -> {}, delay)
+                .thenCompose(permitted -> concurrencyLimiter.acquireAsync()
+                        .thenCompose(acquired -> HttpBuilder
+                                .get(url)
+                                .auth(MEGAPLAN_API_KEY)
+                                .retryPolicy(retryPolicy)
+                                .onAttempt(sampleListener(url))
+                                .executeAsync())
+                        .whenComplete((response, error) -> concurrencyLimiter.release()));
+    }
 
-            LocalDateTime timeCreated = parseDateTime((Map) taskData.get("timeCreated"));
-            LocalDateTime activity = parseDateTime((Map) taskData.get("activity"));
+    /**
+     * Комментарии задач, которые не удалось загрузить, остаются null: такая задача не должна
+     * сохраниться как задача без комментариев.
+     */
+    private static void loadCommentsForTasks(List<Task> allTasks)
+    {
+        // Задача могла попасть сюда повторно (например, из объединенного запроса), комментарии уже есть
+        List<Task> tasks = allTasks.stream()
+                .filter(task -> task.getComments() == null)
+                .collect(Collectors.toList());
 
-            Task task = new Task(id, name, status, owner, responsible);
-            task.setTimeCreated(timeCreated);
-            task.setActivity(activity);
+        if (tasks.isEmpty()) return;
 
-            double plannedHours = parseWorkHours((Map) taskData.get("plannedWork"));
-            double actualHours = parseWorkHours((Map) taskData.get("actualWork"));
-            task.setPlannedWorkHours(plannedHours);
-            task.setActualWorkHours(actualHours);
+        Logger.debug("Загружаем комментарии для " + tasks.size() + " задач...");
 
-            if (taskData.containsKey("subTasks")) {
-                List<Map<String, Object>> subTasks = (List<Map<String, Object>>) taskData.get("subTasks");
+        List<CompletableFuture<Void>> futures = tasks.stream()
+                .map(task -> fetchCommentsAsync(task.getId()).handle((comments, e) -> {
+                    if (e != null)
+                    {
+                        Logger.error("Ошибка получения комментариев для задачи " + task.getId() + ": " + errorMessage(e));
+                        comments = null;
+                    }
+                    task.setComments(comments);
+                    return (Void) null;
+                }))
+                .collect(Collectors.toList());
 
-                List<String> subtaskIds = subTasks.stream()
-                        .map(sub -> (String) sub.get("id"))
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
 
-                task.setSubtaskIds(subtaskIds);
-            }
+        int failed = (int) tasks.stream().filter(task -> task.getComments() == null).count();
+        if (failed > 0) Logger.warn("Не загружены комментарии для " + failed + " из " + tasks.size() + " задач");
+        else Logger.debug("Комментарии загружены для всех задач");
+    }
 
-            return task;
-        }
-        catch (Exception e)
-        {
-            Logger.error("Ошибка парсинга задачи: " + e.getMessage());
-            return null;
-        }
+    private static String errorMessage(Throwable e)
+    {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage();
     }
 
-    private static Task.TaskComment parseComment(Map<String, Object> commentData, String taskId)
+    private static void hydrateEmployees(Collection<Task> tasks)
     {
-        try
+        if (tasks.isEmpty()) return;
+
+        Set<String> employeeIds = new HashSet<>();
+        for (Task task : tasks)
         {
-            String id = (String) commentData.get("id");
-            String rawContent = (String) commentData.get("content");
-            String content = StringUtil.cleanHtml(rawContent);
+            addEmployeeId(employeeIds, task.getOwner());
+            addEmployeeId(employeeIds, task.getResponsible());
 
-            Map<String, Object> ownerData = (Map) commentData.get("owner");
-            String authorId = ownerData != null ? (String) ownerData.get("id") : null;
+            if (task.getComments() == null) continue;
+            for (Task.TaskComment comment : task.getComments()) addEmployeeId(employeeIds, comment.getAuthor());
+        }
 
-            Task.Employee author = authorId != null ? new Task.Employee(authorId, null, null, null) : null;
+        List<String> missingIds = employeeIds.stream()
+                .filter(id -> !employeeCache.containsKey(id))
+                .collect(Collectors.toList());
 
-            Map<String, Object> timeCreated = (Map) commentData.get("timeCreated");
-            Map<String, Object> workDate = (Map) commentData.get("workDate");
-            Map<String, Object> workTime = (Map) commentData.get("workTime");
+        if (!missingIds.isEmpty())
+        {
+            Logger.debug("Загружаем " + missingIds.size() + " сотрудников из " + employeeIds.size() + " (остальные в кеше)");
 
-            LocalDateTime commentDate = parseDateTime(timeCreated);
-            LocalDateTime workDateTime = parseDateTime(workDate);
-            double workHours = parseWorkHours(workTime);
+            List<CompletableFuture<Task.Employee>> futures = missingIds.stream()
+                    .map(id -> getEmployeeByIdAsync(id)
+                            .exceptionally(e -> {
+                                Logger.error("Ошибка загрузки сотрудника " + id + ": " + errorMessage(e));
+                                return null;
+                            }))
+                    .collect(Collectors.toList());
 
-            return new Task.TaskComment(id, content, author, commentDate, workDateTime, workHours, taskId);
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
         }
-        catch (Exception e)
+
+        for (Task task : tasks)
         {
-            Logger.error("Ошибка парсинга комментария: " + e.getMessage());
-            return null;
+            task.setOwner(resolveEmployee(task.getOwner()));
+            task.setResponsible(resolveEmployee(task.getResponsible()));
+
+            if (task.getComments() == null) continue;
+            for (Task.TaskComment comment : task.getComments()) comment.setAuthor(resolveEmployee(comment.getAuthor()));
         }
     }
 
-    private static Task.Employee parseEmployee(Map<String, Object> empData)
+    private static void addEmployeeId(Set<String> employeeIds, Task.Employee employee)
     {
-        if (empData == null) return null;
+        if (employee != null && StringUtil.isNotEmpty(employee.getId())) employeeIds.add(employee.getId());
+    }
 
-        try
-        {
-            String id = (String) empData.get("id");
-            String name = (String) empData.get("name");
-            String position = (String) empData.get("position");
+    private static Task.Employee resolveEmployee(Task.Employee employee)
+    {
+        if (employee == null || employee.getId() == null) return employee;
 
-            String email = findEmail((List) empData.get("contactInfo"));
+        Task.Employee fullEmployee = employeeCache.get(employee.getId());
+        return fullEmployee != null ? fullEmployee : employee;
+    }
 
-            Task.Department department = null;
-            if (empData.containsKey("department"))
-            {
-                Map<String, Object> deptData = (Map) empData.get("department");
-                if (deptData != null)
-                {
-                    String deptId = (String) deptData.get("id");
-                    String deptName = (String) deptData.get("name");
-                    if (deptId != null && deptName != null)
-                    {
-                        department = new Task.Department(deptId, deptName);
-                    }
-                }
-            }
+    private static String buildTaskUrl(String pageAfter)
+    {
+        String baseUrl = getBaseUrl();
+        String endpoint = baseUrl + "/api/v3/task?";
 
-            return new Task.Employee(id, name, email, position, department);
-        }
-        catch (Exception e)
-        {
-            Logger.error("Ошибка парсинга сотрудника: " + e.getMessage());
-            return null;
-        }
+        String jsonParam;
+
+        if (pageAfter != null)
+            jsonParam = "{\"limit\":" + PAGE_SIZE + ",\"pageAfter\":{\"contentType\":\"Task\",\"id\":\"" + pageAfter + "\"},\"sortBy\":" + TASK_SORT + ",\"fields\":" + TASK_FIELDS + "}";
+        else
+            jsonParam = "{\"limit\":" + PAGE_SIZE + ",\"sortBy\":" + TASK_SORT + ",\"fields\":" + TASK_FIELDS + "}";
+
+        return endpoint + StringUtil.urlEncode(jsonParam);
     }
 
-    private static LocalDateTime parseDateTime(Map<String, Object> dateTimeData)
+    private static MegaplanJsonReader.Page<Task> fetchTaskPage(String pageAfter)
     {
-        if (dateTimeData == null) return null;
+        HttpResponse response = requestMegaplan(buildTaskUrl(pageAfter));
 
-        try
-        {
-            String value = (String) dateTimeData.get("value");
-            if (value == null) return null;
+        if (!response.isSuccess())
+            throw new TaskListingException("Ошибка получения страницы задач (после " + pageAfter + "): " + response.getStatusCode(), null);
 
-            return ru.prodvigaeff.control.utils.DateUtil.parseIsoToMsk(value);
-        }
-        catch (Exception e)
-        {
-            Logger.error("Ошибка парсинга даты: " + e.getMessage());
-            return null;
-        }
+        return MegaplanJsonReader.readTaskPage(response.getBodyBytes());
     }
 
-    private static double parseWorkHours(Map<String, Object> workTimeData)
+    /**
+     * Страницы задач в порядке убывания активности. Если задан changedSince, возвращаются только задачи
+     * с активностью не раньше него (кроме задачи-курсора), а следующая страница не запрашивается, если
+     * текущая уже дошла до более старых задач: дальше по сортировке идут только они.
+     * Если страница не загрузилась, поток прерывается TaskListingException, а не заканчивается молча.
+     */
+    public static Stream<List<Task>> streamTaskPages(LocalDateTime changedSince, String cursorId)
     {
-        if (workTimeData == null) return 0.0;
-
-        try
-        {
-            Object value = workTimeData.get("value");
-            if (value == null) return 0.0;
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(new TaskPageIterator(changedSince, cursorId), Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
 
-            if (value instanceof Integer) return ((Integer) value) / 3600.0;
-            if (value instanceof Double) return ((Double) value) / 3600.0;
-            if (value instanceof Long) return ((Long) value) / 3600.0;
+    private static CompletableFuture<List<Task.TaskComment>> fetchCommentsAsync(String taskId)
+    {
+        return requestMegaplanAsync(getCommentsUrl(taskId))
+                .thenApplyAsync(response -> parseCommentsResponse(taskId, response), executor);
+    }
 
-            return 0.0;
-        }
-        catch (Exception e)
-        {
-            Logger.error("Ошибка парсинга рабочих часов: " + e.getMessage());
-            return 0.0;
-        }
+    private static String getCommentsUrl(String taskId)
+    {
+        String baseUrl = getBaseUrl();
+        return baseUrl + "/api/v3/task/" + taskId + "/comments";
     }
 
-    private static String findEmail(List<Map<String, Object>> contactInfo)
+    private static List<Task.TaskComment> parseCommentsResponse(String taskId, HttpResponse response)
     {
-        if (contactInfo == null) return "не найдено";
+        if (!response.isSuccess())
+        {
+            Logger.error("Ошибка получения комментариев для задачи " + taskId + ": " + response.getStatusCode());
+            return null;
+        }
 
         try
         {
-            return contactInfo.stream()
-                    .filter(contact -> "email".equals(contact.get("type")))
-                    .map(contact -> (String) contact.get("value"))
-                    .filter(StringUtil::isNotEmpty)
-                    .filter(email -> StringUtil.isValidCompanyEmail(email, "prodvigaeff.ru"))
-                    .findFirst()
-                    .orElse("не найдено");
+            return MegaplanJsonReader.readComments(response.getBodyBytes(), taskId);
         }
         catch (Exception e)
         {
-            Logger.error("Ошибка поиска email в контактной информации: " + e.getMessage());
-            return "не найдено";
+            Logger.error("Ошибка парсинга комментариев для задачи " + taskId + ": " + e.getMessage());
+            return null;
         }
     }
 
@@ -326,16 +341,53 @@ public class MegaplanTask
             return null;
         }
 
-        if (employeeCache.containsKey(employeeId)) return employeeCache.get(employeeId);
+        Task.Employee cached = employeeCache.get(employeeId);
+        if (cached != null) return cached;
 
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
-        String endpoint = baseUrl + "/api/v3/employee/" + employeeId;
+        return employeeLookups.execute(employeeId, () -> loadEmployee(employeeId));
+    }
 
-        HttpResponse response = HttpBuilder
-                .get(endpoint)
-                .auth(MEGAPLAN_API_KEY)
-                .execute();
+    private static Task.Employee loadEmployee(String employeeId)
+    {
+        // Пока ждали своей очереди, сотрудника мог загрузить предыдущий запрос
+        if (employeeCache.containsKey(employeeId))
+        {
+            Task.Employee cached = employeeCache.get(employeeId);
+            if (cached != null) return cached;
+        }
 
+        Task.Employee employee = requestEmployee(employeeId);
+        if (employee != null) employeeCache.put(employeeId, employee);
+
+        return employee;
+    }
+
+    private static CompletableFuture<Task.Employee> getEmployeeByIdAsync(String employeeId)
+    {
+        Task.Employee cached = employeeCache.get(employeeId);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        return employeeLookups.executeAsync(employeeId, () -> requestMegaplanAsync(getEmployeeUrl(employeeId))
+                .thenApplyAsync(response -> {
+                    Task.Employee employee = parseEmployeeResponse(employeeId, response);
+                    if (employee != null) employeeCache.put(employeeId, employee);
+                    return employee;
+                }, executor));
+    }
+
+    private static Task.Employee requestEmployee(String employeeId)
+    {
+        return parseEmployeeResponse(employeeId, requestMegaplan(getEmployeeUrl(employeeId)));
+    }
+
+    private static String getEmployeeUrl(String employeeId)
+    {
+        String baseUrl = getBaseUrl();
+        return baseUrl + "/api/v3/employee/" + employeeId;
+    }
+
+    private static Task.Employee parseEmployeeResponse(String employeeId, HttpResponse response)
+    {
         if (!response.isSuccess())
         {
             Logger.error("Ошибка получения сотрудника " + employeeId + ": " + response.getStatusCode());
@@ -344,14 +396,7 @@ public class MegaplanTask
 
         try
         {
-            Map<String, Object> jsonResponse = JsonUtil.fromJson(response.getBody(), Map.class);
-            Map<String, Object> employeeData = (Map) jsonResponse.get("data");
-
-            Task.Employee employee = employeeData != null ? parseEmployee(employeeData) : null;
-
-            if (employee != null) employeeCache.put(employeeId, employee);
-
-            return employee;
+            return MegaplanJsonReader.readEmployee(response.getBodyBytes());
         }
         catch (Exception e)
         {
@@ -360,6 +405,37 @@ public class MegaplanTask
         }
     }
 
+    public static void logLookupStats()
+    {
+        Logger.debug(employeeCache.getStats());
+        Logger.debug("Запросов сотрудников: " + employeeLookups.getExecutedCount() +
+                ", сэкономлено объединением: " + employeeLookups.getCoalescedCount());
+        Logger.debug("Запросов задач по ID: " + taskLookups.getExecutedCount() +
+                ", сэкономлено объединением: " + taskLookups.getCoalescedCount());
+        Logger.debug(rateLimiter.getStats());
+        Logger.debug(concurrencyLimiter.getStats());
+        Logger.debug(retryPolicy.getStats());
+        Logger.debug(HttpUtil.getPoolStats());
+        Logger.debug(MegaplanJsonReader.getStats());
+    }
+
+    static void cacheEmployee(Task.Employee employee)
+    {
+        if (employee != null && StringUtil.isNotEmpty(employee.getId())) employeeCache.put(employee.getId(), employee);
+    }
+
+    static int getEmployeeCacheSize()
+    {
+        return employeeCache.size();
+    }
+
+    public static int cleanupEmployeeCache()
+    {
+        int removed = employeeCache.cleanUp();
+        Logger.debug(employeeCache.getStats());
+        return removed;
+    }
+
     public static void clearEmployeeCache()
     {
         employeeCache.clear();
@@ -384,120 +460,178 @@ public class MegaplanTask
         Logger.info("MegaplanTask executor остановлен");
     }
 
-    public static Set<Task> getRecentTasksWithSubtasks()
+    /**
+     * Задачи с активностью не раньше activityCutoff. Листание прекращается, как только страницы уходят
+     * за границу окна, а комментарии загружаются только для задач внутри окна.
+     */
+    public static TaskGraph getRecentTasksWithSubtasks(LocalDateTime activityCutoff)
+    {
+        return loadTasksWithSubtasks(activityCutoff, null, null);
+    }
+
+    /**
+     * Задачи, измененные после метки. Подзадачи, которые уже есть в knownTasks, повторно не запрашиваются:
+     * измененные из них и так приходят в списке, а остальные только используются для обхода вглубь.
+     */
+    public static TaskGraph getTasksChangedSince(LocalDateTime watermark, String cursorId, TaskGraph knownTasks)
+    {
+        return loadTasksWithSubtasks(watermark, cursorId, knownTasks);
+    }
+
+    private static TaskGraph loadTasksWithSubtasks(LocalDateTime changedSince, String cursorId, TaskGraph knownTasks)
     {
         long startTime = System.currentTimeMillis();
-        Logger.debug("Начинаем загрузку недавних задач с подзадачами...");
-        
-        Set<Task> mainTasks = new HashSet<>();
-        String url = buildTaskUrl(null);
+        retryPolicy.resetBudget();
+        if (changedSince == null) Logger.debug("Начинаем загрузку недавних задач с подзадачами...");
+        else Logger.debug("Начинаем загрузку задач, измененных после " + changedSince + "...");
         
-        HttpResponse response = HttpBuilder
-                .get(url)
-                .auth(MEGAPLAN_API_KEY)
-                .execute();
-        
-        if (!response.isSuccess())
+        Map<String, Task> loadedTasks = new LinkedHashMap<>();
+        int[] pageCount = {0};
+        boolean listingComplete = true;
+
+        try
         {
-            Logger.error("Ошибка получения главных задач: " + response.getStatusCode());
-            return mainTasks;
+            streamTaskPages(changedSince, cursorId).forEach(page -> {
+                pageCount[0]++;
+                page.forEach(task -> loadedTasks.putIfAbsent(task.getId(), task));
+            });
         }
-        
-        Map<String, Object> jsonResponse = JsonUtil.fromJson(response.getBody(), Map.class);
-        List<Map<String, Object>> tasksData = (List) jsonResponse.get("data");
-        
-        List<Task> pageTasks = new ArrayList<>();
-        for (Map<String, Object> taskData : tasksData)
+        catch (TaskListingException e)
         {
-            Task task = parseTask(taskData);
-            if (task != null)
-            {
-                pageTasks.add(task);
-            }
+            Logger.error(e.getMessage() + ", список задач неполный");
+            listingComplete = false;
         }
-        
+
+        List<Task> pageTasks = new ArrayList<>(loadedTasks.values());
         Logger.debug("Получено " + pageTasks.size() + " главных задач");
-        
-        loadCommentsForTasks(pageTasks);
-        mainTasks.addAll(pageTasks);
-        
-        List<String> allSubtaskIds = pageTasks.stream()
-                .filter(task -> task.getSubtaskIds() != null && !task.getSubtaskIds().isEmpty())
-                .flatMap(task -> task.getSubtaskIds().stream())
-                .collect(Collectors.toList());
-        
-        Logger.debug("Найдено " + allSubtaskIds.size() + " подзадач для загрузки");
-        
-        if (allSubtaskIds.isEmpty())
+
+        Set<String> visitedIds = new HashSet<>(loadedTasks.keySet());
+
+        int[] levelCount = {0};
+        List<Task> subtasks = loadSubtaskTree(pageTasks, visitedIds, knownTasks, levelCount);
+
+        if (subtasks.isEmpty())
         {
-            Logger.debug("Подзадачи не найдены, возвращаем только главные задачи");
-            return mainTasks;
+            Logger.debug("Новые подзадачи не найдены, возвращаем только главные задачи");
+            return new TaskGraph(loadedTasks.values(), listingComplete && !hasMissingComments(loadedTasks.values()));
         }
+
+        List<Task> activeSubtasks = new ArrayList<>();
+        for (Task subtask : subtasks)
+        {
+            if (isInWindow(subtask, changedSince)) activeSubtasks.add(subtask);
+            else subtask.setComments(new ArrayList<>());
+        }
+
+        if (activeSubtasks.size() < subtasks.size())
+            Logger.debug("Пропущена загрузка комментариев для " + (subtasks.size() - activeSubtasks.size()) + " неактивных подзадач");
+
+        loadCommentsForTasks(activeSubtasks);
+        hydrateEmployees(subtasks);
         
-        List<List<String>> batches = createBatches(allSubtaskIds, BATCH_SIZE);
-        Logger.debug("Разбили на " + batches.size() + " батчей по " + BATCH_SIZE + " подзадач");
-        
-        List<CompletableFuture<List<Task>>> futures = batches.stream()
-                .map(batch -> CompletableFuture.supplyAsync(() -> loadSubtaskBatch(batch), executor))
-                .collect(Collectors.toList());
-        
-        List<Task> subtasks = futures.stream()
-                .map(CompletableFuture::join)
-                .flatMap(List::stream)
-                .collect(Collectors.toList());
-        
-        Logger.debug("Загружено " + subtasks.size() + " подзадач");
-        
-        loadCommentsForTasks(subtasks);
-        
-        mainTasks.addAll(subtasks);
-        Logger.debug("Всего задач с подзадачами: " + mainTasks.size());
+        subtasks.forEach(task -> loadedTasks.putIfAbsent(task.getId(), task));
+        Logger.debug("Всего задач с подзадачами: " + loadedTasks.size());
 
         long endTime = System.currentTimeMillis();
         long duration = endTime - startTime;
 
         Logger.debug("=== СТАТИСТИКА ЗАГРУЗКИ ===");
         Logger.debug("Время выполнения: " + duration + " мс (" + (duration / 1000.0) + " сек)");
-        Logger.debug("Главных задач: " + pageTasks.size());
-        Logger.debug("Подзадач загружено: " + subtasks.size());
-        Logger.debug("Всего задач: " + mainTasks.size());
+        Logger.debug("Главных задач: " + pageTasks.size() + " (страниц: " + pageCount[0] + ")");
+        Logger.debug("Подзадач загружено: " + subtasks.size() + " (уровней: " + levelCount[0] + ")");
+        Logger.debug("Всего задач: " + loadedTasks.size());
         Logger.debug("Среднее кол-во подзадач на задачу: " +
-                (pageTasks.isEmpty() ? 0 : allSubtaskIds.size() / pageTasks.size()));
-        Logger.debug("Батчей обработано: " + batches.size());
-        Logger.debug("Скорость: " + (mainTasks.isEmpty() ? 0 : duration / mainTasks.size()) + " мс на задачу");
+                (pageTasks.isEmpty() ? 0 : subtasks.size() / pageTasks.size()));
+        Logger.debug("Скорость: " + (loadedTasks.isEmpty() ? 0 : duration / loadedTasks.size()) + " мс на задачу");
+        logLookupStats();
         Logger.debug("=========================");
 
+        return new TaskGraph(loadedTasks.values(), listingComplete && !hasMissingComments(loadedTasks.values()));
+    }
 
-        return mainTasks;
+    private static boolean hasMissingComments(Collection<Task> tasks)
+    {
+        return tasks.stream().anyMatch(task -> task.getComments() == null);
     }
     
-    private static List<Task> loadSubtaskBatch(List<String> subtaskIds)
+    /**
+     * Обход дерева подзадач в ширину: каждый уровень загружается параллельно, а задачи,
+     * уже встреченные на странице или у другого родителя, повторно не запрашиваются. Задачи из knownTasks
+     * берутся оттуда и в результат не попадают, через них только продолжается обход.
+     */
+    private static List<Task> loadSubtaskTree(List<Task> roots, Set<String> visitedIds, TaskGraph knownTasks, int[] levelCount)
     {
-        List<Task> batchTasks = new ArrayList<>();
-        
-        for (String subtaskId : subtaskIds)
+        List<Task> subtasks = new ArrayList<>();
+        List<Task> level = roots;
+        int reusedCount = 0;
+
+        for (int depth = 1; depth <= SUBTASK_DEPTH && !level.isEmpty(); depth++)
         {
-            try
+            List<String> frontier = new ArrayList<>();
+            List<Task> known = new ArrayList<>();
+            for (Task task : level)
             {
-                Task subtask = getTaskById(subtaskId);
-                if (subtask != null)
+                if (task.getSubtaskIds() == null) continue;
+
+                for (String subtaskId : task.getSubtaskIds())
                 {
-                    batchTasks.add(subtask);
+                    if (visitedIds.size() >= MAX_TASKS) break;
+                    if (!visitedIds.add(subtaskId)) continue;
+
+                    Task knownTask = knownTasks != null ? knownTasks.getById(subtaskId) : null;
+                    if (knownTask != null) known.add(knownTask);
+                    else frontier.add(subtaskId);
                 }
-                
-                Thread.sleep(10); // Задержка между запросами
-            }
-            catch (Exception e)
-            {
-                Logger.error("Ошибка загрузки подзадачи " + subtaskId + ": " + e.getMessage());
             }
+
+            reusedCount += known.size();
+
+            if (visitedIds.size() >= MAX_TASKS)
+                Logger.warn("Достигнут лимит задач MEGAPLAN_MAX_TASKS=" + MAX_TASKS + ", часть подзадач не загружена");
+
+            if (frontier.isEmpty() && known.isEmpty()) break;
+
+            Logger.debug("Уровень " + depth + ": " + frontier.size() + " подзадач" + (known.isEmpty() ? "" : ", уже известных " + known.size()));
+
+            List<CompletableFuture<Task>> futures = frontier.stream()
+                    .map(subtaskId -> fetchTaskByIdAsync(subtaskId)
+                            .exceptionally(e -> {
+                                Logger.error("Ошибка загрузки подзадачи " + subtaskId + ": " + errorMessage(e));
+                                return null;
+                            }))
+                    .collect(Collectors.toList());
+
+            List<Task> loaded = futures.stream()
+                    .map(CompletableFuture::join)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+
+            subtasks.addAll(loaded);
+            level = new ArrayList<>(loaded);
+            level.addAll(known);
+            levelCount[0] = depth;
         }
-        
-        Logger.debug("Загружен батч из " + batchTasks.size() + " подзадач");
-        return batchTasks;
+
+        if (reusedCount > 0) Logger.debug("Не запрашивались повторно уже известные подзадачи: " + reusedCount);
+
+        return subtasks;
+    }
+
+    private static boolean isInWindow(Task task, LocalDateTime activityCutoff)
+    {
+        if (activityCutoff == null) return true;
+        return task.getActivity() != null && !task.getActivity().isBefore(activityCutoff);
     }
 
     public static Task getTaskById(String taskId)
+    {
+        Task task = fetchTaskById(taskId);
+        if (task != null) hydrateEmployees(List.of(task));
+
+        return task;
+    }
+
+    private static Task fetchTaskById(String taskId)
     {
         if (StringUtil.isEmpty(taskId))
         {
@@ -505,16 +639,30 @@ public class MegaplanTask
             return null;
         }
 
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
+        return taskLookups.execute(taskId, () -> loadTask(taskId));
+    }
 
-        String jsonParam = "{\"fields\":[\"id\",\"name\",\"status\",\"owner\",\"responsible\",\"subTasks\",\"timeCreated\",\"activity\",\"plannedWork\",\"actualWork\"]}";
-        String endpoint = baseUrl + "/api/v3/task/" + taskId + "?" + StringUtil.urlEncode(jsonParam);
+    private static CompletableFuture<Task> fetchTaskByIdAsync(String taskId)
+    {
+        return taskLookups.executeAsync(taskId, () -> requestMegaplanAsync(getTaskUrl(taskId))
+                .thenApplyAsync(response -> parseTaskResponse(taskId, response), executor));
+    }
 
-        HttpResponse response = HttpBuilder
-                .get(endpoint)
-                .auth(MEGAPLAN_API_KEY)
-                .execute();
+    private static Task loadTask(String taskId)
+    {
+        return parseTaskResponse(taskId, requestMegaplan(getTaskUrl(taskId)));
+    }
+
+    private static String getTaskUrl(String taskId)
+    {
+        String baseUrl = getBaseUrl();
 
+        String jsonParam = "{\"fields\":" + TASK_FIELDS + "}";
+        return baseUrl + "/api/v3/task/" + taskId + "?" + StringUtil.urlEncode(jsonParam);
+    }
+
+    private static Task parseTaskResponse(String taskId, HttpResponse response)
+    {
         if (!response.isSuccess())
         {
             Logger.error("Ошибка получения задачи " + taskId + ": " + response.getStatusCode());
@@ -523,10 +671,7 @@ public class MegaplanTask
 
         try
         {
-            Map<String, Object> jsonResponse = JsonUtil.fromJson(response.getBody(), Map.class);
-            Map<String, Object> taskData = (Map) jsonResponse.get("data");
-
-            return taskData != null ? parseTask(taskData) : null;
+            return MegaplanJsonReader.readTask(response.getBodyBytes());
         }
         catch (Exception e)
         {
@@ -535,4 +680,111 @@ public class MegaplanTask
         }
     }
 
-}
\ No newline at end of file
+    private static class TaskPageIterator implements Iterator<List<Task>>
+    {
+        private final LocalDateTime changedSince;
+        private final String cursorId;
+        private final Set<String> seenIds = new HashSet<>();
+
+        private CompletableFuture<MegaplanJsonReader.Page<Task>> nextPage;
+        private MegaplanJsonReader.Page<Task> currentData;
+        private String lastCursor;
+        private int pageNumber;
+
+        TaskPageIterator(LocalDateTime changedSince, String cursorId)
+        {
+            this.changedSince = changedSince;
+            this.cursorId = cursorId;
+            nextPage = CompletableFuture.supplyAsync(() -> fetchTaskPage(null), executor);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if (currentData != null) return true;
+            if (nextPage == null) return false;
+
+            CompletableFuture<MegaplanJsonReader.Page<Task>> page = nextPage;
+            nextPage = null;
+
+            try
+            {
+                currentData = page.join();
+            }
+            catch (CompletionException e)
+            {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof TaskListingException) throw (TaskListingException) cause;
+                throw new TaskListingException("Ошибка загрузки страницы задач " + (pageNumber + 1) + ": " + cause.getMessage(), cause);
+            }
+
+            if (currentData == null || currentData.size == 0)
+            {
+                currentData = null;
+                return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public List<Task> next()
+        {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            MegaplanJsonReader.Page<Task> page = currentData;
+            currentData = null;
+            pageNumber++;
+
+            boolean reachedWatermark = changedSince != null && page.items.stream().anyMatch(this::isBeforeWatermark);
+
+            // Следующую страницу запрашиваем до загрузки комментариев текущей, чтобы загрузка шла параллельно
+            String cursor = page.lastId;
+            if (!reachedWatermark && page.size >= PAGE_SIZE && cursor != null && !cursor.equals(lastCursor))
+            {
+                lastCursor = cursor;
+                nextPage = CompletableFuture.supplyAsync(() -> fetchTaskPage(cursor), executor);
+            }
+
+            List<Task> tasks = new ArrayList<>();
+            for (Task task : page.items)
+            {
+                if (changedSince != null && !isChanged(task)) continue;
+
+                // При смене активности во время листания задача может попасть на две страницы
+                if (seenIds.add(task.getId())) tasks.add(task);
+            }
+
+            loadCommentsForTasks(tasks);
+            hydrateEmployees(tasks);
+
+            Logger.debug("Страница задач " + pageNumber + ": " + tasks.size() + " задач" + (nextPage != null ? ", загружаем следующую" : ", последняя"));
+            return tasks;
+        }
+
+        private boolean isBeforeWatermark(Task task)
+        {
+            LocalDateTime activity = task.getActivity();
+            return activity != null && activity.isBefore(changedSince);
+        }
+
+        private boolean isChanged(Task task)
+        {
+            LocalDateTime activity = task.getActivity();
+            if (activity == null || activity.isBefore(changedSince)) return false;
+
+            return !activity.equals(changedSince) || !Objects.equals(task.getId(), cursorId);
+        }
+    }
+
+    /**
+     * Страница списка задач не загрузилась: полученная часть списка не может считаться полной.
+     */
+    public static class TaskListingException extends RuntimeException
+    {
+        public TaskListingException(String message, Throwable cause)
+        {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.model.TaskGraph;
+import ru.prodvigaeff.control.utils.EnvUtil;
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+public class MegaplanTaskSnapshot
+{
+    private static final long MAX_AGE_MS = TimeUnit.MINUTES.toMillis(EnvUtil.getInt("MEGAPLAN_SNAPSHOT_MAX_AGE_MINUTES", 10));
+
+    private static final Object lock = new Object();
+
+    private static volatile TaskGraph graph;
+    private static volatile long loadedAt;
+    private static CompletableFuture<TaskGraph> refreshInProgress;
+
+    public static Set<Task> getTasks()
+    {
+        return getGraph().getTasks();
+    }
+
+    public static TaskGraph getGraph()
+    {
+        TaskGraph current = graph;
+        if (current != null && isFresh())
+        {
+            Logger.debug("Используем снимок задач (" + current.size() + " задач, возраст " + getAgeMinutes() + " мин)");
+            return current;
+        }
+
+        return refresh();
+    }
+
+    private static TaskGraph refresh()
+    {
+        CompletableFuture<TaskGraph> future;
+        boolean owner = false;
+
+        synchronized (lock)
+        {
+            if (graph != null && isFresh()) return graph;
+
+            if (refreshInProgress != null)
+            {
+                Logger.debug("Снимок задач уже обновляется, ожидаем результат");
+                future = refreshInProgress;
+            }
+            else
+            {
+                future = new CompletableFuture<>();
+                refreshInProgress = future;
+                owner = true;
+            }
+        }
+
+        if (!owner) return awaitRefresh(future);
+
+        try
+        {
+            TaskGraph loaded = MegaplanTaskSync.sync();
+
+            // Пустой граф почти всегда означает ошибку API, не держим его весь срок жизни снимка
+            if (!loaded.isEmpty())
+            {
+                graph = loaded;
+                loadedAt = System.currentTimeMillis();
+                Logger.debug("Снимок задач обновлен: " + loaded.size() + " задач");
+            }
+            else Logger.warn("Получен пустой список задач, снимок не обновлен");
+
+            future.complete(loaded);
+            return loaded;
+        }
+        catch (RuntimeException e)
+        {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                refreshInProgress = null;
+            }
+        }
+    }
+
+    private static TaskGraph awaitRefresh(CompletableFuture<TaskGraph> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static boolean isFresh()
+    {
+        return System.currentTimeMillis() - loadedAt < MAX_AGE_MS;
+    }
+
+    private static long getAgeMinutes()
+    {
+        return TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis() - loadedAt);
+    }
+}
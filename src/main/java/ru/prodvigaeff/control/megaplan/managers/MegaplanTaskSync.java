@@ -0,0 +1,181 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.model.TaskGraph;
+import ru.prodvigaeff.control.utils.DateUtil;
+import ru.prodvigaeff.control.utils.EnvUtil;
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.*;
+
+public class MegaplanTaskSync
+{
+    private static final Path SYNC_DIR = Paths.get(EnvUtil.get("MEGAPLAN_SYNC_DIR", "data"));
+    private static final Path STATE_FILE = SYNC_DIR.resolve("megaplan-sync.properties");
+    private static final Path GRAPH_FILE = SYNC_DIR.resolve("megaplan-tasks.bin");
+
+    private static final int FULL_SYNC_HOURS = EnvUtil.getInt("MEGAPLAN_FULL_SYNC_HOURS", 24);
+    private static final int RETENTION_HOURS = EnvUtil.getInt("MEGAPLAN_SYNC_RETENTION_HOURS", 48);
+
+    private static final Map<String, Task> graph = new LinkedHashMap<>();
+    private static TaskSyncState state;
+
+    public static synchronized TaskGraph sync()
+    {
+        restoreIfNeeded();
+
+        LocalDateTime now = LocalDateTime.now(DateUtil.MSK_ZONE);
+        LocalDateTime retentionCutoff = now.minusHours(RETENTION_HOURS);
+
+        if (needsFullSync(now))
+        {
+            TaskGraph loaded = MegaplanTask.getRecentTasksWithSubtasks(retentionCutoff);
+            if (loaded.isEmpty())
+            {
+                Logger.warn("Полная синхронизация вернула пустой список, оставляем прежний граф задач");
+                return new TaskGraph(graph.values());
+            }
+
+            if (loaded.isComplete())
+            {
+                graph.clear();
+                loaded.getTasks().forEach(task -> graph.put(task.getId(), task));
+
+                state.reset();
+                state.advance(loaded.getTasks());
+                state.setLastFullSync(now);
+
+                Logger.debug("Полная синхронизация: " + graph.size() + " задач, метка " + state.getWatermark());
+            }
+            else
+            {
+                // Неполный список не заменяет граф и не сдвигает метку: следующий запуск повторит полную синхронизацию
+                merge(loaded.getTasks(), null);
+                Logger.warn("Полная синхронизация неполная, граф дополнен " + loaded.size() + " задачами без смены метки");
+            }
+        }
+        else
+        {
+            LocalDateTime watermark = state.getWatermark();
+            TaskGraph changed = MegaplanTask.getTasksChangedSince(watermark, state.getCursor(), new TaskGraph(graph.values()));
+
+            merge(changed.getTasks(), watermark);
+
+            // Пропущенные задачи лежат до максимальной активности в ответе, поэтому метку нельзя сдвигать вовсе
+            if (changed.isComplete()) state.advance(changed.getTasks());
+            else Logger.warn("Дельта-синхронизация неполная, метка остается " + watermark + ", изменения будут запрошены повторно");
+
+            Logger.debug("Дельта-синхронизация: изменено " + changed.size() + " задач, всего " + graph.size() +
+                    ", метка " + state.getWatermark());
+        }
+
+        prune(retentionCutoff);
+        persist();
+
+        return new TaskGraph(graph.values());
+    }
+
+    private static void merge(Collection<Task> tasks, LocalDateTime watermark)
+    {
+        for (Task task : tasks)
+        {
+            // Задача без загруженных комментариев в граф не попадает, иначе она сохранится как задача без комментариев
+            if (task.getComments() == null) continue;
+
+            // Неизмененные подзадачи приходят без комментариев, поэтому не затираем ими уже загруженные
+            boolean unchanged = watermark != null && (task.getActivity() == null || task.getActivity().isBefore(watermark));
+            if (unchanged) graph.putIfAbsent(task.getId(), task);
+            else graph.put(task.getId(), task);
+        }
+    }
+
+    private static boolean needsFullSync(LocalDateTime now)
+    {
+        if (graph.isEmpty() || !state.hasWatermark()) return true;
+
+        LocalDateTime lastFullSync = state.getLastFullSync();
+        return lastFullSync == null || lastFullSync.isBefore(now.minusHours(FULL_SYNC_HOURS));
+    }
+
+    private static void prune(LocalDateTime retentionCutoff)
+    {
+        int before = graph.size();
+
+        // Старые подзадачи оставшихся задач не удаляются: без них проверка иерархии запрашивала бы их из API по одной
+        Set<String> retained = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for (Task task : graph.values())
+        {
+            if (task.getActivity() == null || !task.getActivity().isBefore(retentionCutoff)) pending.add(task.getId());
+        }
+
+        while (!pending.isEmpty())
+        {
+            Task task = graph.get(pending.poll());
+            if (task == null || !retained.add(task.getId())) continue;
+
+            if (task.getSubtaskIds() != null) pending.addAll(task.getSubtaskIds());
+        }
+
+        graph.keySet().retainAll(retained);
+
+        if (graph.size() < before) Logger.debug("Удалено из графа устаревших задач: " + (before - graph.size()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void restoreIfNeeded()
+    {
+        if (state != null) return;
+
+        state = TaskSyncState.load(STATE_FILE);
+        if (!state.hasWatermark()) return;
+
+        if (!Files.exists(GRAPH_FILE))
+        {
+            state.reset();
+            return;
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(GRAPH_FILE))))
+        {
+            List<Task> tasks = (List<Task>) in.readObject();
+            tasks.forEach(task -> graph.put(task.getId(), task));
+
+            Logger.info("Восстановлен граф задач: " + graph.size() + " задач, метка " + state.getWatermark());
+        }
+        catch (Exception e)
+        {
+            Logger.warn("Не удалось восстановить граф задач, будет выполнена полная синхронизация: " + e.getMessage());
+            graph.clear();
+            state.reset();
+        }
+    }
+
+    private static void persist()
+    {
+        try
+        {
+            Files.createDirectories(SYNC_DIR);
+
+            Path tmp = GRAPH_FILE.resolveSibling(GRAPH_FILE.getFileName() + ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+            {
+                out.writeObject(new ArrayList<>(graph.values()));
+            }
+            Files.move(tmp, GRAPH_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            Logger.warn("Не удалось сохранить граф задач: " + e.getMessage());
+            return;
+        }
+
+        state.save(STATE_FILE);
+    }
+}
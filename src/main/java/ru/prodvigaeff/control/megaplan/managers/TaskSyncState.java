@@ -0,0 +1,107 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Properties;
+
+public class TaskSyncState
+{
+    private LocalDateTime watermark;
+    private String cursor;
+    private LocalDateTime lastFullSync;
+
+    public LocalDateTime getWatermark() { return watermark; }
+    public String getCursor() { return cursor; }
+    public LocalDateTime getLastFullSync() { return lastFullSync; }
+
+    public void setLastFullSync(LocalDateTime lastFullSync) { this.lastFullSync = lastFullSync; }
+
+    public boolean hasWatermark()
+    {
+        return watermark != null;
+    }
+
+    public void advance(Collection<Task> tasks)
+    {
+        for (Task task : tasks)
+        {
+            LocalDateTime activity = task.getActivity();
+            if (activity == null) continue;
+
+            if (watermark == null || activity.isAfter(watermark))
+            {
+                watermark = activity;
+                cursor = task.getId();
+            }
+        }
+    }
+
+    public void reset()
+    {
+        watermark = null;
+        cursor = null;
+        lastFullSync = null;
+    }
+
+    public static TaskSyncState load(Path file)
+    {
+        TaskSyncState state = new TaskSyncState();
+        if (!Files.exists(file)) return state;
+
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            props.load(reader);
+
+            state.watermark = parseDateTime(props.getProperty("watermark"));
+            state.cursor = props.getProperty("cursor");
+            state.lastFullSync = parseDateTime(props.getProperty("lastFullSync"));
+        }
+        catch (Exception e)
+        {
+            Logger.warn("Не удалось прочитать состояние синхронизации " + file + ": " + e.getMessage());
+            state.reset();
+        }
+
+        return state;
+    }
+
+    public void save(Path file)
+    {
+        Properties props = new Properties();
+        if (watermark != null) props.setProperty("watermark", watermark.toString());
+        if (cursor != null) props.setProperty("cursor", cursor);
+        if (lastFullSync != null) props.setProperty("lastFullSync", lastFullSync.toString());
+
+        try
+        {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))
+            {
+                props.store(writer, "Megaplan task sync state");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            Logger.warn("Не удалось сохранить состояние синхронизации " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static LocalDateTime parseDateTime(String value)
+    {
+        return value == null || value.isEmpty() ? null : LocalDateTime.parse(value);
+    }
+}
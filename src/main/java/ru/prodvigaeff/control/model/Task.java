@@ -1,10 +1,14 @@
 package ru.prodvigaeff.control.model;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Objects;
 
-public class Task
+public class Task implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     private String id;
     private String name;
     private String status;
@@ -38,6 +42,8 @@ public class Task
     public double getPlannedWorkHours() { return plannedWorkHours; }
     public double getActualWorkHours() { return actualWorkHours; }
 
+    public void setOwner(Employee owner) { this.owner = owner; }
+    public void setResponsible(Employee responsible) { this.responsible = responsible; }
     public void setComments(List<TaskComment> comments) { this.comments = comments; }
     public void setSubtaskIds(List<String> subtaskIds) { this.subtaskIds = subtaskIds; }
     public void setTimeCreated(LocalDateTime timeCreated) { this.timeCreated = timeCreated; }
@@ -45,8 +51,24 @@ public class Task
     public void setPlannedWorkHours(double plannedWorkHours) { this.plannedWorkHours = plannedWorkHours; }
     public void setActualWorkHours(double actualWorkHours) { this.actualWorkHours = actualWorkHours; }
 
-    public static class TaskComment
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof Task)) return false;
+        return Objects.equals(id, ((Task) o).id);
+    }
+
+    @Override
+    public int hashCode()
     {
+        return Objects.hashCode(id);
+    }
+
+    public static class TaskComment implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
         private String id;
         private String content;
         private Employee author;
@@ -76,14 +98,18 @@ public class Task
         public double getWorkHours() { return workHours; }
         public String getTaskId() { return taskId; }
 
+        public void setAuthor(Employee author) { this.author = author; }
+
         public boolean hasWorkTime()
         {
             return workHours > 0 && workDate != null;
         }
     }
 
-    public static class Employee
+    public static class Employee implements Serializable
     {
+        private static final long serialVersionUID = 1L;
+
         private String id;
         private String name;
         private String email;
@@ -116,8 +142,10 @@ public class Task
         public void setDepartment(Department department) { this.department = department; }
     }
 
-    public static class Department
+    public static class Department implements Serializable
     {
+        private static final long serialVersionUID = 1L;
+
         private String id;
         private String name;
 
@@ -0,0 +1,77 @@
+package ru.prodvigaeff.control.model;
+
+import java.util.*;
+
+public class TaskGraph
+{
+    private final Map<String, Task> tasksById = new LinkedHashMap<>();
+    private final Map<String, String> parentIds = new HashMap<>();
+    private final Set<Task> tasks;
+    private final boolean complete;
+
+    public TaskGraph(Collection<Task> tasks)
+    {
+        this(tasks, true);
+    }
+
+    /**
+     * complete = false, если часть страниц или комментариев не загрузилась и граф нельзя считать полным срезом.
+     */
+    public TaskGraph(Collection<Task> tasks, boolean complete)
+    {
+        this.complete = complete;
+
+        for (Task task : tasks)
+        {
+            if (task != null && task.getId() != null) tasksById.putIfAbsent(task.getId(), task);
+        }
+
+        for (Task task : tasksById.values())
+        {
+            if (task.getSubtaskIds() == null) continue;
+
+            for (String subtaskId : task.getSubtaskIds()) parentIds.putIfAbsent(subtaskId, task.getId());
+        }
+
+        this.tasks = Collections.unmodifiableSet(new LinkedHashSet<>(tasksById.values()));
+    }
+
+    public static TaskGraph empty()
+    {
+        return new TaskGraph(Collections.emptyList());
+    }
+
+    public Set<Task> getTasks() { return tasks; }
+    public int size() { return tasksById.size(); }
+    public boolean isEmpty() { return tasksById.isEmpty(); }
+    public boolean isComplete() { return complete; }
+
+    public boolean contains(String taskId)
+    {
+        return tasksById.containsKey(taskId);
+    }
+
+    public Task getById(String taskId)
+    {
+        return tasksById.get(taskId);
+    }
+
+    public Task getParent(Task task)
+    {
+        String parentId = parentIds.get(task.getId());
+        return parentId != null ? tasksById.get(parentId) : null;
+    }
+
+    public List<Task> getChildren(Task task)
+    {
+        if (task.getSubtaskIds() == null || task.getSubtaskIds().isEmpty()) return Collections.emptyList();
+
+        List<Task> children = new ArrayList<>();
+        for (String subtaskId : task.getSubtaskIds())
+        {
+            Task child = tasksById.get(subtaskId);
+            if (child != null) children.add(child);
+        }
+        return children;
+    }
+}
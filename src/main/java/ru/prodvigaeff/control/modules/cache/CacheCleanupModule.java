@@ -25,9 +25,9 @@ public class CacheCleanupModule extends AbstractModule
         
         long startTime = System.currentTimeMillis();
         
-        MegaplanTask.clearEmployeeCache();
+        int removed = MegaplanTask.cleanupEmployeeCache();
         
         long endTime = System.currentTimeMillis();
-        Logger.result("Очистка кеша", 1, endTime - startTime);
+        Logger.result("Очистка кеша", removed, endTime - startTime);
     }
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package ru.prodvigaeff.control.modules.cache;
+
+import ru.prodvigaeff.control.core.module.AbstractModule;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanEmployeeDirectory;
+import ru.prodvigaeff.control.utils.EnvUtil;
+import ru.prodvigaeff.control.utils.Logger;
+
+public class EmployeeDirectoryModule extends AbstractModule
+{
+    @Override
+    public String getName()
+    {
+        return "EmployeeDirectory";
+    }
+
+    @Override
+    public String getCronExpression()
+    {
+        return EnvUtil.get("EMPLOYEE_DIRECTORY_CRON", "0 30 9 * * *");
+    }
+
+    @Override
+    public void executeModule()
+    {
+        Logger.debug("Начинаем загрузку справочника сотрудников");
+
+        long startTime = System.currentTimeMillis();
+
+        int loaded = MegaplanEmployeeDirectory.preload();
+
+        long endTime = System.currentTimeMillis();
+        Logger.result("Загрузка справочника сотрудников", loaded, endTime - startTime);
+    }
+}
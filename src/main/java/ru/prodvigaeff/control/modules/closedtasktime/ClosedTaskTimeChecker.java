@@ -1,6 +1,7 @@
 package ru.prodvigaeff.control.modules.closedtasktime;
 
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanTaskSnapshot;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.utils.DateUtil;
 import ru.prodvigaeff.control.utils.Logger;
@@ -18,7 +19,7 @@ public class ClosedTaskTimeChecker
 
     public List<ClosedTaskTimeViolation> checkViolations()
     {
-        Set<Task> tasks = MegaplanTask.getRecentTasksWithSubtasks();
+        Set<Task> tasks = MegaplanTaskSnapshot.getTasks();
         List<ClosedTaskTimeViolation> violations = new ArrayList<>();
 
         LocalDateTime now = LocalDateTime.now(DateUtil.MSK_ZONE);
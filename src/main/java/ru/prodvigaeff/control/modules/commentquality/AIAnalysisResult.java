@@ -1,13 +1,18 @@
 package ru.prodvigaeff.control.modules.commentquality;
 
-public class AIAnalysisResult
+import java.io.Serializable;
+
+public class AIAnalysisResult implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     private int detailScore;
     private int realismScore;
     private int concreteScore;
     private double totalScore;
     private String verdict;
     private String reason;
+    private boolean local;
 
     public AIAnalysisResult(int detailScore, int realismScore, int concreteScore, 
                             double totalScore, String verdict, String reason)
@@ -20,10 +25,21 @@ public class AIAnalysisResult
         this.reason = reason;
     }
 
+    /**
+     * Результат локальной предварительной оценки: AI комментарий не видел, реалистичность не оценивалась.
+     */
+    public static AIAnalysisResult local(int detailScore, int concreteScore, double totalScore, String verdict, String reason)
+    {
+        AIAnalysisResult result = new AIAnalysisResult(detailScore, 0, concreteScore, totalScore, verdict, reason);
+        result.local = true;
+        return result;
+    }
+
     public int getDetailScore() { return detailScore; }
     public int getRealismScore() { return realismScore; }
     public int getConcreteScore() { return concreteScore; }
     public double getTotalScore() { return totalScore; }
     public String getVerdict() { return verdict; }
     public String getReason() { return reason; }
+    public boolean isLocal() { return local; }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package ru.prodvigaeff.control.modules.commentquality;
 
 import ru.prodvigaeff.control.http.HttpBuilder;
 import ru.prodvigaeff.control.http.HttpResponse;
+import ru.prodvigaeff.control.http.RetryPolicy;
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.utils.EnvUtil;
@@ -10,65 +11,245 @@ import ru.prodvigaeff.control.utils.Logger;
 import ru.prodvigaeff.control.utils.StringUtil;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class AIAnalysisService
 {
     private static final String AI_API_URL = EnvUtil.get("AI_API_URL", "https://text.pollinations.ai/openai");
 
+    // Увеличить при любом изменении промпта или модели: старые вердикты перестанут совпадать по ключу
+    private static final int PROMPT_VERSION = 1;
+    // Вердикты пакетного промпта хранятся отдельно: одиночный анализ их не использует, а пакетный берет и одиночные
+    private static final int BATCH_PROMPT_VERSION = 1001;
+    private static final int BATCH_SIZE = Math.max(1, EnvUtil.getInt("AI_BATCH_SIZE", 1));
+
+    // Единственный уровень повторов для AI: HTTP повторы и повтор при невалидном ответе расходуют один бюджет
+    private final RetryPolicy retryPolicy = RetryPolicy.fromEnv("AI API", EnvUtil.getInt("AI_MAX_ATTEMPTS", 3));
+
+    private final AIVerdictCache verdictCache = new AIVerdictCache(
+            Paths.get(EnvUtil.get("AI_VERDICT_CACHE_FILE", "data/ai-verdicts.bin")),
+            EnvUtil.getInt("AI_VERDICT_CACHE_MAX_SIZE", 20000),
+            TimeUnit.DAYS.toMillis(EnvUtil.getInt("AI_VERDICT_CACHE_TTL_DAYS", 30)),
+            EnvUtil.getInt("AI_SIMILARITY_MAX_DISTANCE", 8),
+            EnvUtil.getDouble("AI_SIMILARITY_HOURS_TOLERANCE", 1.0));
+
+    /**
+     * Начало прогона проверки: бюджет повторов и статистика кеша считаются заново.
+     */
+    public void startRun()
+    {
+        retryPolicy.resetBudget();
+        verdictCache.resetStats();
+    }
+
+    /**
+     * Конец прогона: новые вердикты сохраняются на диск.
+     */
+    public void finishRun()
+    {
+        verdictCache.save();
+    }
+
+    public String getRetryStats()
+    {
+        return retryPolicy.getStats();
+    }
+
+    public String getCacheStats()
+    {
+        return verdictCache.getStats();
+    }
+
+    public int getBatchSize()
+    {
+        return BATCH_SIZE;
+    }
+
     public AIAnalysisResult analyze(String commentText, double workHours, Task.Employee author, String taskName)
     {
-        int maxRetries = 3;
-        int attempt = 0;
+        PreparedComment comment = prepare(new CommentInput(null, commentText, workHours, author, taskName), 0);
+
+        AIAnalysisResult cached = findCached(comment, false);
+        if (cached != null) return cached;
+
+        return analyzeSingle(comment);
+    }
+
+    /**
+     * Анализ нескольких комментариев одним запросом к AI. Результаты в порядке входного списка,
+     * null - комментарий проверить не удалось. Если пакет целиком не разобран или заблокирован,
+     * он делится пополам, пока проблемный комментарий не останется один.
+     */
+    public List<AIAnalysisResult> analyzeBatch(List<CommentInput> inputs)
+    {
+        AIAnalysisResult[] results = new AIAnalysisResult[inputs.size()];
+        List<PreparedComment> uncached = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
 
-        while (attempt < maxRetries)
+        for (int i = 0; i < inputs.size(); i++)
         {
-            try
+            PreparedComment comment = prepare(inputs.get(i), i);
+
+            // id в промпте должен однозначно указывать на комментарий
+            if (!ids.add(comment.id))
             {
-                commentText = fixEncoding(commentText);
-                taskName = fixEncoding(taskName);
+                comment.id = "#" + (i + 1);
+                ids.add(comment.id);
+            }
 
-                String position = getEmployeePosition(author);
-                String prompt = buildPrompt(commentText, workHours, position, taskName);
+            results[i] = findCached(comment, true);
+            if (results[i] == null) uncached.add(comment);
+        }
 
-                Logger.debug("Анализируем комментарий (попытка " + (attempt + 1) + "): " +
-                        StringUtil.truncate(commentText, 50) + "...");
+        if (!uncached.isEmpty()) requestBatch(uncached, results);
 
-                String response = sendAIRequest(prompt);
-                AIAnalysisResult result = parseAIResponse(response);
+        return Arrays.asList(results);
+    }
 
-                Logger.debug("Оценка ИИ: " + result.getTotalScore() + "/10 - " + result.getVerdict());
-                Logger.debug("  Конкретика: " + result.getConcreteScore() + "/10");
-                Logger.debug("  Реалистичность: " + result.getRealismScore() + "/10");
+    private void requestBatch(List<PreparedComment> comments, AIAnalysisResult[] results)
+    {
+        if (comments.size() == 1)
+        {
+            PreparedComment comment = comments.get(0);
+            results[comment.index] = analyzeSingle(comment);
+            return;
+        }
 
-                return result;
+        long startTime = System.currentTimeMillis();
+        Map<String, AIAnalysisResult> verdicts;
+
+        try
+        {
+            verdicts = parseBatchResponse(sendAIRequest(buildBatchPrompt(comments)));
+        }
+        catch (ContentFilterException e)
+        {
+            Logger.warn("Пакет из " + comments.size() + " комментариев заблокирован content filter, делим пополам");
+            verdicts = Map.of();
+        }
+        catch (Exception e)
+        {
+            Logger.warn("Ошибка пакетного анализа " + comments.size() + " комментариев, делим пополам: " + e.getMessage());
+            verdicts = Map.of();
+        }
+
+        List<PreparedComment> missing = new ArrayList<>();
+        for (PreparedComment comment : comments)
+        {
+            AIAnalysisResult result = verdicts.get(comment.id);
+            if (result == null)
+            {
+                missing.add(comment);
+                continue;
             }
-            catch (ContentFilterException e)
+
+            results[comment.index] = result;
+            verdictCache.put(comment.batchCacheKey, result, BATCH_PROMPT_VERSION, comment.authorId, comment.fingerprint, comment.workHours);
+        }
+
+        Logger.debug("Пакет из " + comments.size() + " комментариев: получено вердиктов " + (comments.size() - missing.size()) +
+                " за " + (System.currentTimeMillis() - startTime) + " мс");
+
+        if (missing.isEmpty()) return;
+
+        // Частично ответивший пакет дозапрашиваем только по недостающим, целиком неудачный делим пополам
+        if (missing.size() < comments.size())
+        {
+            requestBatch(missing, results);
+            return;
+        }
+
+        int half = missing.size() / 2;
+        requestBatch(missing.subList(0, half), results);
+        requestBatch(missing.subList(half, missing.size()), results);
+    }
+
+    private PreparedComment prepare(CommentInput input, int index)
+    {
+        PreparedComment comment = new PreparedComment();
+        comment.index = index;
+        comment.id = input.id != null ? input.id : "#" + (index + 1);
+        comment.text = fixEncoding(input.text);
+        comment.taskName = fixEncoding(input.taskName);
+        comment.workHours = input.workHours;
+        comment.position = getEmployeePosition(input.author);
+        comment.authorId = input.author != null ? input.author.getId() : null;
+        comment.cacheKey = AIVerdictCache.key(PROMPT_VERSION, comment.text, comment.workHours, comment.position, comment.taskName);
+        comment.batchCacheKey = AIVerdictCache.key(BATCH_PROMPT_VERSION, comment.text, comment.workHours, comment.position, comment.taskName);
+        comment.fingerprint = SimHash.of(comment.text);
+        return comment;
+    }
+
+    private AIAnalysisResult findCached(PreparedComment comment, boolean batch)
+    {
+        List<String> keys = batch ? List.of(comment.cacheKey, comment.batchCacheKey) : List.of(comment.cacheKey);
+        List<Integer> versions = batch ? List.of(PROMPT_VERSION, BATCH_PROMPT_VERSION) : List.of(PROMPT_VERSION);
+
+        AIAnalysisResult cached = verdictCache.get(keys);
+        if (cached != null)
+        {
+            Logger.debug("Вердикт из кеша: " + cached.getTotalScore() + "/10 - " + cached.getVerdict());
+            return cached;
+        }
+
+        AIAnalysisResult similar = verdictCache.findSimilar(versions, comment.authorId, comment.fingerprint, comment.workHours);
+        if (similar != null)
+        {
+            Logger.debug("Вердикт похожего комментария: " + similar.getTotalScore() + "/10 - " + similar.getVerdict());
+            verdictCache.put(batch ? comment.batchCacheKey : comment.cacheKey, similar);
+        }
+
+        return similar;
+    }
+
+    private AIAnalysisResult analyzeSingle(PreparedComment comment)
+    {
+        String prompt = buildPrompt(comment.text, comment.workHours, comment.position, comment.taskName);
+
+        Logger.debug("Анализируем комментарий: " + StringUtil.truncate(comment.text, 50) + "...");
+
+        try
+        {
+            String response = sendAIRequest(prompt);
+            AIAnalysisResult result;
+            try
             {
-                Logger.warn("Комментарий заблокирован content filter. Пропускаем.");
-                return null;
+                result = parseAIResponse(response);
             }
-            catch (Exception e)
+            catch (RuntimeException e)
             {
-                attempt++;
-                if (attempt < maxRetries)
-                {
-                    Logger.warn("Ошибка AI анализа (попытка " + attempt + "/" + maxRetries + "): " +
-                            e.getMessage() + ". Повторяем через 2 секунды...");
-                    try { Thread.sleep(2000); } catch (InterruptedException ie) {}
-                }
-                else
-                {
-                    Logger.error("Ошибка AI анализа после " + maxRetries + " попыток: " + e.getMessage());
-                    return null;
-                }
+                // Модель иногда отвечает не по формату, повторный запрос обычно это исправляет
+                if (!retryPolicy.tryRetry()) throw e;
+
+                Logger.warn("Невалидный ответ AI, повторяем запрос: " + e.getMessage());
+                result = parseAIResponse(sendAIRequest(prompt));
             }
-        }
 
-        return null;
+            Logger.debug("Оценка ИИ: " + result.getTotalScore() + "/10 - " + result.getVerdict());
+            Logger.debug("  Конкретика: " + result.getConcreteScore() + "/10");
+            Logger.debug("  Реалистичность: " + result.getRealismScore() + "/10");
+
+            verdictCache.put(comment.cacheKey, result, PROMPT_VERSION, comment.authorId, comment.fingerprint, comment.workHours);
+            return result;
+        }
+        catch (ContentFilterException e)
+        {
+            Logger.warn("Комментарий заблокирован content filter. Пропускаем.");
+            return null;
+        }
+        catch (Exception e)
+        {
+            Logger.error("Ошибка AI анализа: " + e.getMessage());
+            return null;
+        }
     }
 
     private String getEmployeePosition(Task.Employee author)
@@ -85,6 +266,68 @@ public class AIAnalysisService
     }
 
 
+    private static final String CRITERIA =
+            "=== ТВОЯ ЗАДАЧА ===\n" +
+            "Оцени качество ОПИСАНИЯ РАБОТЫ. Твоя цель - найти ОТКРОВЕННО ПЛОХИЕ комментарии, " +
+            "где невозможно понять, чем человек занимался.\n\n" +
+
+            "=== ЧТО СЧИТАЕТСЯ НОРМАЛЬНЫМ (PASS) ===\n" +
+            "✓ Есть понимание, чем занимался сотрудник\n" +
+            "✓ Указаны конкретные действия (разработал, исправил, настроил, провел, создал)\n" +
+            "✓ Упоминаются технологии, инструменты или объекты работы\n" +
+            "✓ Для больших часов (5+) - достаточно списка из 3-5 задач или детального описания одной сложной работы\n" +
+            "✓ Технические термины и профессиональный жаргон - это ХОРОШО\n\n" +
+
+            "=== ЧТО ТОЧНО ПЛОХО (FAIL) ===\n" +
+            "✗ Одно слово: \"работал\", \"занимался\", \"делал\" без уточнений\n" +
+            "✗ Очень короткие описания (меньше 3 слов) для любого времени\n" +
+            "✗ Только повтор названия задачи без деталей\n" +
+            "✗ Для 5+ часов: описание короче 5 слов или полное отсутствие конкретики\n" +
+            "✗ Невозможно понять, что делал человек\n\n" +
+
+            "=== ПРАВИЛА ПО ВРЕМЕНИ (мягкие) ===\n" +
+            "• 0-1 ч: достаточно одного действия (\"совещание по проекту X\")\n" +
+            "• 1-3 ч: 1-2 конкретных действия\n" +
+            "• 3-5 ч: 2-4 действия или детальное описание\n" +
+            "• 5-8 ч: 3-6 задач или подробное описание сложной работы\n" +
+            "• 8+ ч: список задач или очень детальное описание\n\n" +
+
+            "=== ОЦЕНКИ ===\n" +
+            "detail_score (0-10): Насколько детально описана работа?\n" +
+            "  0-2: почти нет информации\n" +
+            "  3-5: минимальная информация, но что-то понятно\n" +
+            "  6-7: достаточно деталей\n" +
+            "  8-10: отличное описание\n\n" +
+
+            "realism_score (0-10): Реально ли описанная работа заняла указанное время?\n" +
+            "  0-3: явно недостаточно работы\n" +
+            "  4-6: возможно, но сомнительно\n" +
+            "  7-10: выглядит реалистично\n\n" +
+
+            "concrete_score (0-10): Насколько конкретно описание?\n" +
+            "  0-2: только абстрактные фразы\n" +
+            "  3-5: есть некоторая конкретика\n" +
+            "  6-8: много конкретных деталей\n" +
+            "  9-10: максимально конкретное описание\n\n" +
+
+            "=== ВЕРДИКТ (будь снисходительным!) ===\n" +
+            "FAIL только если:\n" +
+            "  - total_score < 3 (совсем нет информации)\n" +
+            "  - total_score < 4 И часов >= 5\n" +
+            "  - описание короче 3 слов для любого количества часов\n" +
+            "  - только \"работал\" без деталей\n" +
+            "PASS: во всех остальных случаях\n\n" +
+
+            "=== ПРИМЕРЫ ===\n" +
+            "1ч + \"совещание по проекту X\" → PASS (достаточно)\n" +
+            "3ч + \"работал над задачей\" → FAIL (нет конкретики)\n" +
+            "5ч + \"Разработан модуль с нуля, реализован HTML-шаблон, выполнено тестирование\" → PASS (отлично)\n" +
+            "8ч + \"работал весь день\" → FAIL (нет деталей)\n" +
+            "8ч + \"Завершил разработку, исправил баги, доработал запрос ИИ, собрал контейнер, написал readme, создал инструкции, написал документацию\" → PASS (детально)\n\n" +
+
+            "ВАЖНО: Будь снисходительным! Цель - отловить только ОТКРОВЕННО плохие комментарии, " +
+            "где вообще непонятно, чем занимался человек. Если есть хоть какая-то конкретика - это PASS.\n\n";
+
     private String buildPrompt(String commentText, double workHours, String position, String taskName)
     {
         return String.format(
@@ -92,81 +335,50 @@ public class AIAnalysisService
                         "Название задачи: \"%s\"\n" +
                         "Должность: %s\n" +
                         "Списано часов: %.1f ч\n" +
-                        "Описание работы сотрудника: \"%s\"\n\n" +
-
-                        "=== ТВОЯ ЗАДАЧА ===\n" +
-                        "Оцени качество ОПИСАНИЯ РАБОТЫ. Твоя цель - найти ОТКРОВЕННО ПЛОХИЕ комментарии, " +
-                        "где невозможно понять, чем человек занимался.\n\n" +
-
-                        "=== ЧТО СЧИТАЕТСЯ НОРМАЛЬНЫМ (PASS) ===\n" +
-                        "✓ Есть понимание, чем занимался сотрудник\n" +
-                        "✓ Указаны конкретные действия (разработал, исправил, настроил, провел, создал)\n" +
-                        "✓ Упоминаются технологии, инструменты или объекты работы\n" +
-                        "✓ Для больших часов (5+) - достаточно списка из 3-5 задач или детального описания одной сложной работы\n" +
-                        "✓ Технические термины и профессиональный жаргон - это ХОРОШО\n\n" +
-
-                        "=== ЧТО ТОЧНО ПЛОХО (FAIL) ===\n" +
-                        "✗ Одно слово: \"работал\", \"занимался\", \"делал\" без уточнений\n" +
-                        "✗ Очень короткие описания (меньше 3 слов) для любого времени\n" +
-                        "✗ Только повтор названия задачи без деталей\n" +
-                        "✗ Для 5+ часов: описание короче 5 слов или полное отсутствие конкретики\n" +
-                        "✗ Невозможно понять, что делал человек\n\n" +
-
-                        "=== ПРАВИЛА ПО ВРЕМЕНИ (мягкие) ===\n" +
-                        "• 0-1 ч: достаточно одного действия (\"совещание по проекту X\")\n" +
-                        "• 1-3 ч: 1-2 конкретных действия\n" +
-                        "• 3-5 ч: 2-4 действия или детальное описание\n" +
-                        "• 5-8 ч: 3-6 задач или подробное описание сложной работы\n" +
-                        "• 8+ ч: список задач или очень детальное описание\n\n" +
-
-                        "=== ОЦЕНКИ ===\n" +
-                        "detail_score (0-10): Насколько детально описана работа?\n" +
-                        "  0-2: почти нет информации\n" +
-                        "  3-5: минимальная информация, но что-то понятно\n" +
-                        "  6-7: достаточно деталей\n" +
-                        "  8-10: отличное описание\n\n" +
-
-                        "realism_score (0-10): Реально ли описанная работа заняла указанное время?\n" +
-                        "  0-3: явно недостаточно работы\n" +
-                        "  4-6: возможно, но сомнительно\n" +
-                        "  7-10: выглядит реалистично\n\n" +
-
-                        "concrete_score (0-10): Насколько конкретно описание?\n" +
-                        "  0-2: только абстрактные фразы\n" +
-                        "  3-5: есть некоторая конкретика\n" +
-                        "  6-8: много конкретных деталей\n" +
-                        "  9-10: максимально конкретное описание\n\n" +
-
-                        "=== ВЕРДИКТ (будь снисходительным!) ===\n" +
-                        "FAIL только если:\n" +
-                        "  - total_score < 3 (совсем нет информации)\n" +
-                        "  - total_score < 4 И часов >= 5\n" +
-                        "  - описание короче 3 слов для любого количества часов\n" +
-                        "  - только \"работал\" без деталей\n" +
-                        "PASS: во всех остальных случаях\n\n" +
-
-                        "=== ПРИМЕРЫ ===\n" +
-                        "1ч + \"совещание по проекту X\" → PASS (достаточно)\n" +
-                        "3ч + \"работал над задачей\" → FAIL (нет конкретики)\n" +
-                        "5ч + \"Разработан модуль с нуля, реализован HTML-шаблон, выполнено тестирование\" → PASS (отлично)\n" +
-                        "8ч + \"работал весь день\" → FAIL (нет деталей)\n" +
-                        "8ч + \"Завершил разработку, исправил баги, доработал запрос ИИ, собрал контейнер, написал readme, создал инструкции, написал документацию\" → PASS (детально)\n\n" +
-
-                        "ВАЖНО: Будь снисходительным! Цель - отловить только ОТКРОВЕННО плохие комментарии, " +
-                        "где вообще непонятно, чем занимался человек. Если есть хоть какая-то конкретика - это PASS.\n\n" +
-
-                        "ВЕРНИ JSON:\n" +
-                        "{\n" +
-                        "  \"detail_score\": 0-10,\n" +
-                        "  \"realism_score\": 0-10,\n" +
-                        "  \"concrete_score\": 0-10,\n" +
-                        "  \"total_score\": 0-10,\n" +
-                        "  \"verdict\": \"PASS\" или \"FAIL\",\n" +
-                        "  \"reason\": \"краткое объяснение на русском (максимум 15 слов)\"\n" +
-                        "}",
+                        "Описание работы сотрудника: \"%s\"\n\n",
                 taskName, position, workHours, commentText
-        );
+        ) + CRITERIA +
+                "ВЕРНИ JSON:\n" +
+                "{\n" +
+                "  \"detail_score\": 0-10,\n" +
+                "  \"realism_score\": 0-10,\n" +
+                "  \"concrete_score\": 0-10,\n" +
+                "  \"total_score\": 0-10,\n" +
+                "  \"verdict\": \"PASS\" или \"FAIL\",\n" +
+                "  \"reason\": \"краткое объяснение на русском (максимум 15 слов)\"\n" +
+                "}";
+    }
+
+    private String buildBatchPrompt(List<PreparedComment> comments)
+    {
+        StringBuilder data = new StringBuilder("=== ДАННЫЕ ДЛЯ АНАЛИЗА ===\n");
+        for (PreparedComment comment : comments)
+        {
+            data.append(String.format(
+                    "--- Комментарий id=%s ---\n" +
+                            "Название задачи: \"%s\"\n" +
+                            "Должность: %s\n" +
+                            "Списано часов: %.1f ч\n" +
+                            "Описание работы сотрудника: \"%s\"\n\n",
+                    comment.id, comment.taskName, comment.position, comment.workHours, comment.text));
+        }
+
+        return data + CRITERIA +
+                "Оцени КАЖДЫЙ комментарий отдельно, независимо от остальных.\n\n" +
+                "ВЕРНИ JSON-массив, по одному объекту на каждый комментарий (" + comments.size() + " шт.):\n" +
+                "[\n" +
+                "  {\n" +
+                "    \"id\": \"id комментария из данных\",\n" +
+                "    \"detail_score\": 0-10,\n" +
+                "    \"realism_score\": 0-10,\n" +
+                "    \"concrete_score\": 0-10,\n" +
+                "    \"total_score\": 0-10,\n" +
+                "    \"verdict\": \"PASS\" или \"FAIL\",\n" +
+                "    \"reason\": \"краткое объяснение на русском (максимум 15 слов)\"\n" +
+                "  }\n" +
+                "]";
     }
+
     private String sendAIRequest(String prompt)
     {
         Map<String, Object> requestBody = new HashMap<>();
@@ -197,7 +409,11 @@ public class AIAnalysisService
                 .header("Accept", "application/json")
                 .header("Accept-Charset", "UTF-8")
                 .body(jsonBody)
-                .executeWithRetry(5);
+                // Запрос к модели ничего не меняет на нашей стороне: повтор после обрыва стоит лишь
+                // повторной оплаты токенов, а число попыток ограничено AI_MAX_ATTEMPTS и бюджетом повторов
+                .idempotent(true)
+                .retryPolicy(retryPolicy)
+                .execute();
 
         if (response.getStatusCode() == 400)
         {
@@ -217,45 +433,130 @@ public class AIAnalysisService
     {
         try
         {
-            Map<String, Object> json = JsonUtil.fromJson(responseBody, Map.class);
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) json.get("choices");
+            String content = extractContent(responseBody);
+            return toResult(JsonUtil.fromJson(content, Map.class), content);
+        }
+        catch (Exception e)
+        {
+            Logger.error("Ошибка парсинга ответа AI: " + e.getMessage());
+            Logger.debug("Ответ AI: " + responseBody);
+            throw new RuntimeException("Ошибка парсинга ответа AI", e);
+        }
+    }
 
-            if (choices == null || choices.isEmpty())
-            {
-                throw new RuntimeException("Пустой ответ от AI");
-            }
+    /**
+     * Вердикты пакетного ответа по id комментария. Отсутствующие или неполные элементы пропускаются,
+     * их комментарии запрашиваются повторно.
+     */
+    private Map<String, AIAnalysisResult> parseBatchResponse(String responseBody)
+    {
+        try
+        {
+            String content = extractContent(responseBody).trim();
 
-            Map<String, Object> firstChoice = choices.get(0);
-            Map<String, String> message = (Map<String, String>) firstChoice.get("message");
-            String content = message.get("content");
+            // Модель иногда заворачивает массив в объект, принимаем оба варианта
+            List<Map<String, Object>> items = content.startsWith("[")
+                    ? JsonUtil.fromJson(content, List.class)
+                    : (List<Map<String, Object>>) JsonUtil.fromJson(content, Map.class).get("results");
 
-            Map<String, Object> result = JsonUtil.fromJson(content, Map.class);
+            if (items == null) throw new RuntimeException("В ответе нет массива вердиктов");
 
-            if (!result.containsKey("realism_score") ||
-                    !result.containsKey("concrete_score") ||
-                    !result.containsKey("total_score") ||
-                    !result.containsKey("verdict") ||
-                    !result.containsKey("reason"))
+            Map<String, AIAnalysisResult> results = new HashMap<>();
+            for (Map<String, Object> item : items)
             {
-                Logger.warn("AI вернул неполный JSON: " + content);
-                throw new RuntimeException("Неполный ответ от AI - отсутствуют обязательные поля");
-            }
+                Object id = item.get("id");
+                if (id == null) continue;
 
-            int realismScore = ((Number) result.get("realism_score")).intValue();
-            int concreteScore = ((Number) result.get("concrete_score")).intValue();
-            double totalScore = ((Number) result.get("total_score")).doubleValue();
-            String verdict = (String) result.get("verdict");
-            String reason = (String) result.get("reason");
+                try
+                {
+                    results.put(String.valueOf(id), toResult(item, String.valueOf(item)));
+                }
+                catch (RuntimeException e)
+                {
+                    Logger.warn("Вердикт комментария " + id + " в пакете не разобран: " + e.getMessage());
+                }
+            }
 
-            // detail_score больше нет, передаем 0 или используем concrete_score
-            return new AIAnalysisResult(0, realismScore, concreteScore, totalScore, verdict, reason);
+            return results;
         }
         catch (Exception e)
         {
-            Logger.error("Ошибка парсинга ответа AI: " + e.getMessage());
+            Logger.error("Ошибка парсинга пакетного ответа AI: " + e.getMessage());
             Logger.debug("Ответ AI: " + responseBody);
-            throw new RuntimeException("Ошибка парсинга ответа AI", e);
+            throw new RuntimeException("Ошибка парсинга пакетного ответа AI", e);
+        }
+    }
+
+    private String extractContent(String responseBody)
+    {
+        Map<String, Object> json = JsonUtil.fromJson(responseBody, Map.class);
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) json.get("choices");
+
+        if (choices == null || choices.isEmpty())
+        {
+            throw new RuntimeException("Пустой ответ от AI");
         }
+
+        Map<String, Object> firstChoice = choices.get(0);
+        Map<String, String> message = (Map<String, String>) firstChoice.get("message");
+        return message.get("content");
+    }
+
+    private AIAnalysisResult toResult(Map<String, Object> result, String content)
+    {
+        if (!result.containsKey("realism_score") ||
+                !result.containsKey("concrete_score") ||
+                !result.containsKey("total_score") ||
+                !result.containsKey("verdict") ||
+                !result.containsKey("reason"))
+        {
+            Logger.warn("AI вернул неполный JSON: " + content);
+            throw new RuntimeException("Неполный ответ от AI - отсутствуют обязательные поля");
+        }
+
+        int realismScore = ((Number) result.get("realism_score")).intValue();
+        int concreteScore = ((Number) result.get("concrete_score")).intValue();
+        double totalScore = ((Number) result.get("total_score")).doubleValue();
+        String verdict = (String) result.get("verdict");
+        String reason = (String) result.get("reason");
+
+        // detail_score больше нет, передаем 0 или используем concrete_score
+        return new AIAnalysisResult(0, realismScore, concreteScore, totalScore, verdict, reason);
+    }
+
+    /**
+     * Комментарий для пакетного анализа. id попадает в промпт и связывает вердикт с комментарием.
+     */
+    public static class CommentInput
+    {
+        private final String id;
+        private final String text;
+        private final double workHours;
+        private final Task.Employee author;
+        private final String taskName;
+
+        public CommentInput(String id, String text, double workHours, Task.Employee author, String taskName)
+        {
+            this.id = id;
+            this.text = text;
+            this.workHours = workHours;
+            this.author = author;
+            this.taskName = taskName;
+        }
+    }
+
+    private static class PreparedComment
+    {
+        int index;
+        String id;
+        String text;
+        String taskName;
+        double workHours;
+        String position;
+        String authorId;
+        String cacheKey;
+        String batchCacheKey;
+        long fingerprint;
     }
 
     private String fixEncoding(String text)
@@ -0,0 +1,291 @@
+package ru.prodvigaeff.control.modules.commentquality;
+
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Сохраняемый между запусками кеш вердиктов AI. Ключ - SHA-256 от версии промпта и нормализованных
+ * данных комментария, поэтому измененный комментарий или новый промпт анализируются заново.
+ * Размер ограничен (вытесняются давно не использованные записи), записи старше ttl не используются.
+ * Для записей с автором хранится SimHash текста: почти дословный повтор того же автора с близкими
+ * часами получает уже вынесенный вердикт без запроса к AI.
+ */
+public class AIVerdictCache
+{
+    private final Path file;
+    private final int maxSize;
+    private final long ttlMs;
+    private final int maxDistance;
+    private final double hoursTolerance;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Map<String, Entry>> entriesByAuthor = new HashMap<>();
+    private boolean dirty;
+
+    private long hits;
+    private long similarHits;
+    private long misses;
+    private long stored;
+
+    /**
+     * maxDistance - максимальное расстояние Хэмминга между отпечатками похожих комментариев, отрицательное отключает поиск похожих.
+     */
+    public AIVerdictCache(Path file, int maxSize, long ttlMs, int maxDistance, double hoursTolerance)
+    {
+        this.file = file;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMs = ttlMs;
+        this.maxDistance = maxDistance;
+        this.hoursTolerance = hoursTolerance;
+        load();
+    }
+
+    public static String key(int promptVersion, String commentText, double workHours, String position, String taskName)
+    {
+        String source = promptVersion + "\n" + normalize(commentText) + "\n" + String.format(Locale.ROOT, "%.2f", workHours) +
+                "\n" + normalize(position) + "\n" + normalize(taskName);
+
+        try
+        {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    // Регистр и пробелы на вердикт не влияют, поэтому не должны влиять и на ключ
+    private static String normalize(String text)
+    {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Вердикт по первому найденному из ключей, например одиночного и пакетного промпта. Промах считается один раз.
+     */
+    public synchronized AIAnalysisResult get(List<String> keys)
+    {
+        long now = System.currentTimeMillis();
+
+        for (String key : keys)
+        {
+            Entry entry = entries.get(key);
+            if (entry == null) continue;
+
+            if (isExpired(entry, now))
+            {
+                remove(key);
+                dirty = true;
+                continue;
+            }
+
+            hits++;
+            return entry.result;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Вердикт ближайшего по отпечатку комментария того же автора, вызывать после промаха get.
+     */
+    public synchronized AIAnalysisResult findSimilar(List<Integer> promptVersions, String authorId, long fingerprint, double workHours)
+    {
+        if (maxDistance < 0 || authorId == null) return null;
+
+        Map<String, Entry> candidates = entriesByAuthor.get(authorId);
+        if (candidates == null) return null;
+
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        int bestDistance = Integer.MAX_VALUE;
+
+        // Кандидаты берутся из индекса автора, а не через entries.get: просмотр не должен менять порядок вытеснения
+        for (Entry entry : candidates.values())
+        {
+            if (!promptVersions.contains(entry.promptVersion) || isExpired(entry, now)) continue;
+            if (Math.abs(entry.workHours - workHours) > hoursTolerance) continue;
+
+            int distance = SimHash.distance(entry.fingerprint, fingerprint);
+            if (distance <= maxDistance && distance < bestDistance)
+            {
+                best = entry;
+                bestDistance = distance;
+            }
+        }
+
+        if (best == null) return null;
+
+        misses--;
+        similarHits++;
+        Logger.debug("Найден похожий комментарий автора " + authorId + " (расстояние " + bestDistance + " бит)");
+        return best.result;
+    }
+
+    /**
+     * Вердикт, повторно использованный для похожего комментария: в индекс похожих не попадает,
+     * чтобы цепочка мелких правок не уводила все дальше от реально проверенного текста.
+     */
+    public synchronized void put(String key, AIAnalysisResult result)
+    {
+        put(key, new Entry(result, System.currentTimeMillis(), 0, null, 0L, 0.0));
+    }
+
+    public synchronized void put(String key, AIAnalysisResult result, int promptVersion, String authorId, long fingerprint, double workHours)
+    {
+        put(key, new Entry(result, System.currentTimeMillis(), promptVersion, authorId, fingerprint, workHours));
+    }
+
+    private void put(String key, Entry entry)
+    {
+        if (entry.result == null) return;
+
+        remove(key);
+        entries.put(key, entry);
+        index(key, entry);
+        stored++;
+        dirty = true;
+
+        while (entries.size() > maxSize) remove(entries.keySet().iterator().next());
+    }
+
+    private void index(String key, Entry entry)
+    {
+        if (entry.authorId != null) entriesByAuthor.computeIfAbsent(entry.authorId, id -> new HashMap<>()).put(key, entry);
+    }
+
+    private void remove(String key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry == null || entry.authorId == null) return;
+
+        Map<String, Entry> authorEntries = entriesByAuthor.get(entry.authorId);
+        if (authorEntries == null) return;
+
+        authorEntries.remove(key);
+        if (authorEntries.isEmpty()) entriesByAuthor.remove(entry.authorId);
+    }
+
+    public synchronized void resetStats()
+    {
+        hits = 0;
+        similarHits = 0;
+        misses = 0;
+        stored = 0;
+    }
+
+    public synchronized String getStats()
+    {
+        long lookups = hits + similarHits + misses;
+        long saved = hits + similarHits;
+        return String.format("Кеш вердиктов AI: попаданий %d из %d (%.0f%%: точных %d, похожих %d), сэкономлено запросов к AI %d, добавлено %d, записей %d/%d",
+                saved, lookups, lookups == 0 ? 0.0 : saved * 100.0 / lookups, hits, similarHits, saved, stored, entries.size(), maxSize);
+    }
+
+    public synchronized void save()
+    {
+        if (!dirty) return;
+
+        long now = System.currentTimeMillis();
+        List<String> expired = new ArrayList<>();
+        entries.forEach((key, entry) -> {
+            if (isExpired(entry, now)) expired.add(key);
+        });
+        expired.forEach(this::remove);
+
+        try
+        {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+            {
+                out.writeObject(new HashMap<>(entries));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            dirty = false;
+        }
+        catch (IOException e)
+        {
+            Logger.warn("Не удалось сохранить кеш вердиктов AI " + file + ": " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load()
+    {
+        if (!Files.exists(file)) return;
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            Map<String, Entry> loaded = (Map<String, Entry>) in.readObject();
+
+            // Давно сохраненные записи первыми попадают под вытеснение
+            long now = System.currentTimeMillis();
+            loaded.entrySet().stream()
+                    .filter(e -> !isExpired(e.getValue(), now))
+                    .sorted(Map.Entry.comparingByValue((a, b) -> Long.compare(a.storedAt, b.storedAt)))
+                    .forEach(e -> {
+                        entries.put(e.getKey(), e.getValue());
+                        index(e.getKey(), e.getValue());
+                    });
+
+            while (entries.size() > maxSize) remove(entries.keySet().iterator().next());
+
+            Logger.info("Загружен кеш вердиктов AI: " + entries.size() + " записей");
+        }
+        catch (Exception e)
+        {
+            Logger.warn("Не удалось прочитать кеш вердиктов AI " + file + ", начинаем с пустого: " + e.getMessage());
+            entries.clear();
+            entriesByAuthor.clear();
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now)
+    {
+        return now - entry.storedAt >= ttlMs;
+    }
+
+    private static class Entry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final AIAnalysisResult result;
+        final long storedAt;
+        final int promptVersion;
+        final String authorId;
+        final long fingerprint;
+        final double workHours;
+
+        Entry(AIAnalysisResult result, long storedAt, int promptVersion, String authorId, long fingerprint, double workHours)
+        {
+            this.result = result;
+            this.storedAt = storedAt;
+            this.promptVersion = promptVersion;
+            this.authorId = authorId;
+            this.fingerprint = fingerprint;
+            this.workHours = workHours;
+        }
+    }
+}
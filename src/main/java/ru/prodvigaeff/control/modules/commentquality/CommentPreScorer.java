@@ -0,0 +1,321 @@
+package ru.prodvigaeff.control.modules.commentquality;
+
+import ru.prodvigaeff.control.utils.EnvUtil;
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Локальная предварительная оценка комментария без запроса к AI: по длине описания на час,
+ * конкретике (цифры, латиница, предметные слова), числу действий и повторам.
+ * Явно хорошие и явно плохие описания решаются на месте, к AI уходит только пограничная середина.
+ * <p>
+ * Режимы AI_PRESCORE_MODE: off - не используется; shadow - оценка только считается и сравнивается
+ * с вердиктами AI; on - уверенные оценки применяются, часть из них для контроля все равно уходит к AI.
+ */
+public class CommentPreScorer
+{
+    public enum Mode { OFF, SHADOW, ON }
+
+    public enum Verdict { PASS, FAIL, UNCERTAIN }
+
+    private static final Pattern WORD_SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern PAST_VERB = Pattern.compile(".{2,}(ал|ял|ил|ел|ул|ыл)(а|и|о|ся|ась|ись|ось)?");
+    private static final Pattern PARTICIPLE = Pattern.compile(".{4,}(ан|ен)(а|о|ы)?");
+    private static final Pattern LATIN_OR_DIGIT = Pattern.compile(".*[a-z0-9].*");
+    private static final Pattern SAMPLE_SEPARATORS = Pattern.compile("[\\t\\r\\n]+");
+
+    // Выборка для сверки порогов не растет бесконечно: при переполнении вытесняются самые старые строки
+    private static final int MAX_SAMPLE_LINES = 5000;
+
+    // Действия и объекты работы из примеров промпта и типичных описаний
+    private static final String[] SPECIFIC_STEMS = {
+            "разработ", "исправ", "настро", "провер", "провед", "провел", "созда", "написа", "доработ", "тестир",
+            "протестир", "обнов", "подготов", "согласов", "внедр", "сверст", "реализ", "выполн", "собра", "сборк",
+            "модул", "шаблон", "отчет", "отчёт", "документ", "инструкц", "запрос", "ошибк", "баг", "контейнер",
+            "сервер", "сайт", "страниц", "макет", "дизайн", "клиент", "заказчик", "договор", "счет", "смет",
+            "созвон", "совещан", "встреч", "презентац", "аналит", "анализ", "интеграц", "выгрузк", "рекламн",
+            "кампан", "семантик", "баннер", "текст", "стать", "лендинг", "верстк", "код", "тест", "readme"
+    };
+
+    private static final Set<String> VAGUE_WORDS = Set.of(
+            "работал", "работала", "поработал", "поработала", "занимался", "занималась", "делал", "делала",
+            "сделал", "сделала", "работа", "работы", "работе", "работу", "работой", "задача", "задачи", "задаче",
+            "задачу", "задачей", "задачам", "задачами", "проект", "проекта", "проекту", "проектом", "весь", "день",
+            "дня", "целый", "над", "по", "в", "на", "с", "и");
+
+    private final Mode mode;
+    private final int shadowPercent;
+    private final Path sampleFile;
+    private final Queue<String> sampleLines = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong scored = new AtomicLong();
+    private final AtomicLong localPass = new AtomicLong();
+    private final AtomicLong localFail = new AtomicLong();
+    private final AtomicLong uncertain = new AtomicLong();
+    private final AtomicLong escalated = new AtomicLong();
+    private final AtomicLong scoringNanos = new AtomicLong();
+    private final AtomicLong compared = new AtomicLong();
+    private final AtomicLong agreed = new AtomicLong();
+    private final AtomicLong falseFails = new AtomicLong();
+    private final AtomicLong missedFails = new AtomicLong();
+
+    public CommentPreScorer()
+    {
+        this(parseMode(EnvUtil.get("AI_PRESCORE_MODE", "shadow")), EnvUtil.getInt("AI_PRESCORE_SHADOW_PERCENT", 10),
+                parseSampleFile(EnvUtil.get("AI_PRESCORE_SAMPLE_FILE", "data/prescore-sample.tsv")));
+    }
+
+    public CommentPreScorer(Mode mode, int shadowPercent)
+    {
+        this(mode, shadowPercent, null);
+    }
+
+    private CommentPreScorer(Mode mode, int shadowPercent, Path sampleFile)
+    {
+        this.mode = mode;
+        this.shadowPercent = Math.max(0, Math.min(100, shadowPercent));
+        this.sampleFile = sampleFile;
+    }
+
+    private static Path parseSampleFile(String value)
+    {
+        return value == null || value.isBlank() ? null : Paths.get(value.trim());
+    }
+
+    private static Mode parseMode(String value)
+    {
+        try
+        {
+            return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e)
+        {
+            Logger.warn("Неизвестный AI_PRESCORE_MODE=" + value + ", используем shadow");
+            return Mode.SHADOW;
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return mode != Mode.OFF;
+    }
+
+    public Score score(String text, double workHours)
+    {
+        long startedAt = System.nanoTime();
+
+        List<String> words = new ArrayList<>();
+        for (String word : WORD_SPLIT.split(text == null ? "" : text.toLowerCase(Locale.ROOT)))
+        {
+            if (!word.isEmpty()) words.add(word);
+        }
+
+        int meaningful = 0;
+        int specific = 0;
+        int actions = 0;
+        Set<String> unique = new HashSet<>();
+
+        for (String word : words)
+        {
+            unique.add(word);
+            if (VAGUE_WORDS.contains(word)) continue;
+
+            meaningful++;
+            if (LATIN_OR_DIGIT.matcher(word).matches() || hasSpecificStem(word)) specific++;
+            if (PAST_VERB.matcher(word).matches() || PARTICIPLE.matcher(word).matches()) actions++;
+        }
+
+        Score score = decide(words.size(), unique.size(), meaningful, specific, actions, workHours);
+
+        scored.incrementAndGet();
+        scoringNanos.addAndGet(System.nanoTime() - startedAt);
+        switch (score.verdict)
+        {
+            case PASS -> localPass.incrementAndGet();
+            case FAIL -> localFail.incrementAndGet();
+            case UNCERTAIN -> uncertain.incrementAndGet();
+        }
+
+        return score;
+    }
+
+    // Пороги консервативные: FAIL только по жестким правилам промпта, PASS только при явном избытке конкретики
+    private Score decide(int words, int uniqueWords, int meaningful, int specific, int actions, double workHours)
+    {
+        double hours = Math.max(1.0, workHours);
+        double wordsPerHour = words / hours;
+        double uniqueRatio = words == 0 ? 0.0 : (double) uniqueWords / words;
+
+        int detailScore = (int) Math.min(10, Math.round(wordsPerHour * 2));
+        int concreteScore = Math.min(10, (specific + actions) * 2);
+        double totalScore = Math.round((0.4 * detailScore + 0.6 * concreteScore) * (uniqueRatio < 0.5 ? 0.7 : 1.0) * 10) / 10.0;
+
+        if (words < 3)
+            return new Score(Verdict.FAIL, detailScore, concreteScore, totalScore, "описание короче 3 слов");
+
+        if (meaningful == 0)
+            return new Score(Verdict.FAIL, detailScore, concreteScore, totalScore, "только общие слова вроде \"работал над задачей\"");
+
+        if (workHours >= 5 && words < 5 && specific == 0)
+            return new Score(Verdict.FAIL, detailScore, concreteScore, totalScore, "меньше 5 слов без конкретики на " + workHours + " ч");
+
+        if (words >= 8 && actions >= 2 && specific + actions >= 4 && uniqueRatio >= 0.6 && wordsPerHour >= 1.5)
+            return new Score(Verdict.PASS, detailScore, concreteScore, totalScore, "конкретные действия и объекты работы");
+
+        return new Score(Verdict.UNCERTAIN, detailScore, concreteScore, totalScore, null);
+    }
+
+    private static boolean hasSpecificStem(String word)
+    {
+        for (String stem : SPECIFIC_STEMS)
+        {
+            if (word.startsWith(stem)) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Нужно ли отправлять комментарий в AI: в режиме on уверенные оценки идут к AI только выборочно, для контроля согласия.
+     */
+    public boolean shouldAskAI(Score score)
+    {
+        boolean ask = mode != Mode.ON || score.verdict == Verdict.UNCERTAIN
+                || ThreadLocalRandom.current().nextInt(100) < shadowPercent;
+
+        if (ask) escalated.incrementAndGet();
+        return ask;
+    }
+
+    /**
+     * Сравнивает уверенную локальную оценку с вердиктом AI на том же комментарии.
+     * Сам вердикт AI запоминается как строка выборки для сверки порогов (см. saveSample).
+     */
+    public void recordAgreement(String text, double workHours, Score score, AIAnalysisResult aiResult)
+    {
+        if (aiResult == null) return;
+
+        if (sampleFile != null && ("PASS".equals(aiResult.getVerdict()) || "FAIL".equals(aiResult.getVerdict())))
+        {
+            sampleLines.add(aiResult.getVerdict() + "\t" + workHours + "\t" + SAMPLE_SEPARATORS.matcher(text).replaceAll(" ").trim());
+        }
+
+        if (score.verdict == Verdict.UNCERTAIN) return;
+
+        compared.incrementAndGet();
+        if (score.verdict.name().equals(aiResult.getVerdict()))
+        {
+            agreed.incrementAndGet();
+            return;
+        }
+
+        if (score.verdict == Verdict.FAIL) falseFails.incrementAndGet();
+        else missedFails.incrementAndGet();
+    }
+
+    /**
+     * Дописывает вердикты AI за прогон в AI_PRESCORE_SAMPLE_FILE: строка - вердикт AI, часы и текст через табуляцию.
+     * По этому файлу пороги сверяются командой ./gradlew preScoreCheck.
+     */
+    public synchronized void saveSample()
+    {
+        if (sampleFile == null || sampleLines.isEmpty()) return;
+
+        try
+        {
+            Set<String> lines = new LinkedHashSet<>();
+            if (Files.exists(sampleFile)) lines.addAll(Files.readAllLines(sampleFile, StandardCharsets.UTF_8));
+
+            String line;
+            while ((line = sampleLines.poll()) != null) lines.add(line);
+
+            Iterator<String> oldest = lines.iterator();
+            for (int excess = lines.size() - MAX_SAMPLE_LINES; excess > 0; excess--)
+            {
+                oldest.next();
+                oldest.remove();
+            }
+
+            if (sampleFile.getParent() != null) Files.createDirectories(sampleFile.getParent());
+
+            Path tmp = sampleFile.resolveSibling(sampleFile.getFileName() + ".tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, sampleFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            Logger.warn("Не удалось сохранить выборку предварительной оценки " + sampleFile + ": " + e.getMessage());
+        }
+    }
+
+    public void resetStats()
+    {
+        for (AtomicLong counter : List.of(scored, localPass, localFail, uncertain, escalated, scoringNanos,
+                compared, agreed, falseFails, missedFails))
+        {
+            counter.set(0);
+        }
+    }
+
+    public String getStats()
+    {
+        long count = scored.get();
+        double seconds = scoringNanos.get() / (double) TimeUnit.SECONDS.toNanos(1);
+        long comparedCount = compared.get();
+
+        return String.format("Предварительная оценка (%s): комментариев %d, PASS %d, FAIL %d, неясно %d, отправлено в AI %d, " +
+                        "скорость %.0f оценок/с; сравнение с AI: %d, совпало %.0f%%, лишних FAIL %d, пропущенных FAIL %d",
+                mode.name().toLowerCase(Locale.ROOT), count, localPass.get(), localFail.get(), uncertain.get(), escalated.get(),
+                seconds == 0 ? 0.0 : count / seconds, comparedCount,
+                comparedCount == 0 ? 0.0 : agreed.get() * 100.0 / comparedCount, falseFails.get(), missedFails.get());
+    }
+
+    public static class Score
+    {
+        private final Verdict verdict;
+        private final int detailScore;
+        private final int concreteScore;
+        private final double totalScore;
+        private final String reason;
+
+        Score(Verdict verdict, int detailScore, int concreteScore, double totalScore, String reason)
+        {
+            this.verdict = verdict;
+            this.detailScore = detailScore;
+            this.concreteScore = concreteScore;
+            this.totalScore = totalScore;
+            this.reason = reason;
+        }
+
+        public Verdict getVerdict() { return verdict; }
+        public String getReason() { return reason; }
+        public double getTotalScore() { return totalScore; }
+
+        /**
+         * Результат в том же виде, что и у AI, чтобы локальное нарушение уходило в те же уведомления.
+         */
+        public AIAnalysisResult toResult()
+        {
+            return AIAnalysisResult.local(detailScore, concreteScore, totalScore, verdict.name(), "Локальная оценка: " + reason);
+        }
+    }
+}
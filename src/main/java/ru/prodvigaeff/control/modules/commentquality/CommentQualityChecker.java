@@ -1,38 +1,56 @@
 package ru.prodvigaeff.control.modules.commentquality;
 
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanTaskSnapshot;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.utils.DateUtil;
+import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class CommentQualityChecker
 {
     private static final double MIN_HOURS_TO_CHECK = 4.0;
+    private static final int ANALYSIS_PARALLELISM = Math.max(1, EnvUtil.getInt("AI_ANALYSIS_PARALLELISM", 4));
+    private static final long ANALYSIS_DEADLINE_MS = TimeUnit.MINUTES.toMillis(EnvUtil.getInt("AI_ANALYSIS_DEADLINE_MINUTES", 30));
+
     private final AIAnalysisService aiService;
+    private final CommentPreScorer preScorer;
 
     public CommentQualityChecker()
     {
         this.aiService = new AIAnalysisService();
+        this.preScorer = new CommentPreScorer();
     }
 
     public List<CommentQualityViolation> checkViolations()
     {
-        Set<Task> tasks = MegaplanTask.getRecentTasksWithSubtasks();
+        Set<Task> tasks = MegaplanTaskSnapshot.getTasks();
         List<CommentQualityViolation> violations = new ArrayList<>();
 
         LocalDateTime now = LocalDateTime.now(DateUtil.MSK_ZONE);
         LocalDateTime cutoffDate = now.minusHours(24);
 
         Logger.debug("Начинаем проверку качества комментариев");
+        aiService.startRun();
+        preScorer.resetStats();
         Logger.debug("Проверяем комментарии с >= " + MIN_HOURS_TO_CHECK + " часов за последние 7 дней");
         Logger.debug("Период с " + cutoffDate + " по " + now + " (MSK)");
 
+        List<PendingComment> pending = new ArrayList<>();
         int checkedComments = 0;
         int totalTasks = tasks.size();
         int processedTasks = 0;
@@ -91,44 +109,178 @@ public class CommentQualityChecker
                         ", дата=" + commentDateMsk + " MSK" +
                         ", часы=" + comment.getWorkHours());
 
+                pending.add(new PendingComment(task, comment, authorName));
+            }
+
+            if (processedTasks % 50 == 0)
+            {
+                Logger.progress("Обработка задач", processedTasks, totalTasks);
+            }
+        }
+
+        analyzeAll(pending, violations);
+        aiService.finishRun();
+        preScorer.saveSample();
+        Logger.debug(aiService.getRetryStats());
+        Logger.debug(aiService.getCacheStats());
+        if (preScorer.isEnabled()) Logger.debug(preScorer.getStats());
+
+        return violations;
+    }
+
+    /**
+     * Анализирует комментарии параллельно, не больше AI_ANALYSIS_PARALLELISM запросов к AI одновременно.
+     * При AI_BATCH_SIZE больше 1 каждый запрос несет пакет комментариев. Комментарии, уверенно оцененные
+     * локально, в режиме AI_PRESCORE_MODE=on к AI не отправляются (кроме контрольной выборки).
+     * Результаты разбираются в исходном порядке, поэтому порядок нарушений не зависит от порядка ответов.
+     * Что не успело до дедлайна прогона, пропускается.
+     */
+    private void analyzeAll(List<PendingComment> pending, List<CommentQualityViolation> violations)
+    {
+        if (pending.isEmpty()) return;
+
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + ANALYSIS_DEADLINE_MS;
+
+        List<PendingComment> toAi = new ArrayList<>();
+        for (PendingComment item : pending)
+        {
+            if (preScorer.isEnabled()) item.preScore = preScorer.score(item.comment.getContent(), item.comment.getWorkHours());
+
+            if (item.preScore != null && !preScorer.shouldAskAI(item.preScore))
+            {
+                item.local = true;
+                item.result = CompletableFuture.completedFuture(item.preScore.toResult());
+            }
+            else toAi.add(item);
+        }
+
+        int batchSize = aiService.getBatchSize();
+        int batches = (toAi.size() + batchSize - 1) / batchSize;
+        int parallelism = Math.max(1, Math.min(ANALYSIS_PARALLELISM, batches));
+        ExecutorService analysisExecutor = Executors.newFixedThreadPool(parallelism);
+
+        int analyzed = 0;
+        int skipped = 0;
+
+        try
+        {
+            for (int from = 0; from < toAi.size(); from += batchSize)
+            {
+                List<PendingComment> batch = toAi.subList(from, Math.min(from + batchSize, toAi.size()));
+                CompletableFuture<List<AIAnalysisResult>> batchResults =
+                        CompletableFuture.supplyAsync(() -> analyze(batch, deadline), analysisExecutor);
+
+                for (int i = 0; i < batch.size(); i++)
+                {
+                    int index = i;
+                    batch.get(i).result = batchResults.thenApply(list -> list.get(index));
+                }
+            }
+
+            for (PendingComment item : pending)
+            {
+                AIAnalysisResult result;
+
                 try
                 {
-                    AIAnalysisResult result = aiService.analyze(
-                            comment.getContent(),
-                            comment.getWorkHours(),
-                            comment.getAuthor(),
-                            task.getName()
-                    );
-
-                    if (result == null)
+                    result = item.result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException | CancellationException e)
+                {
+                    skipped++;
+                    continue;
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof CancellationException)
                     {
-                        Logger.debug("Комментарий пропущен из-за ошибки AI"); continue;
+                        skipped++;
+                        continue;
                     }
 
-                    if ("FAIL".equals(result.getVerdict()))
-                    {
-                        violations.add(new CommentQualityViolation(task, comment, result));
-                        Logger.warn("Нарушение: задача " + task.getId() +
-                                ", автор: " + authorName +
-                                ", оценка: " + result.getTotalScore());
-                    }
-                    else Logger.debug("Комментарий прошел проверку (автор: " + authorName + ")");
+                    Logger.error("Ошибка анализа комментария (автор: " + item.authorName + "): " + cause.getMessage());
+                    continue;
+                }
 
+                if (result == null)
+                {
+                    Logger.debug("Комментарий пропущен из-за ошибки AI (автор: " + item.authorName + ")"); continue;
                 }
-                catch (Exception e)
+
+                analyzed++;
+                if (!item.local && item.preScore != null) preScorer.recordAgreement(item.comment.getContent(), item.comment.getWorkHours(), item.preScore, result);
+
+                if ("FAIL".equals(result.getVerdict()))
                 {
-                    Logger.error("Ошибка анализа комментария (автор: " + authorName + "): " + e.getMessage());
+                    violations.add(new CommentQualityViolation(item.task, item.comment, result));
+                    Logger.warn("Нарушение: задача " + item.task.getId() +
+                            ", автор: " + item.authorName +
+                            ", оценка: " + result.getTotalScore());
                 }
+                else Logger.debug("Комментарий прошел проверку (автор: " + item.authorName + ")");
             }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            Logger.warn("Анализ комментариев прерван");
+        }
+        finally
+        {
+            analysisExecutor.shutdownNow();
+        }
 
-            if (processedTasks % 50 == 0)
-            {
-                Logger.progress("Обработка задач", processedTasks, totalTasks);
-            }
+        if (skipped > 0)
+            Logger.warn("Не уложились в дедлайн анализа (" + TimeUnit.MILLISECONDS.toMinutes(ANALYSIS_DEADLINE_MS) + " мин): пропущено комментариев " + skipped);
+
+        Logger.debug("AI анализ: " + analyzed + " из " + pending.size() + " комментариев (к AI отправлено " + toAi.size() + ") за " +
+                (System.currentTimeMillis() - startTime) + " мс, пакетов " + batches + ", параллельность " + parallelism);
+    }
+
+    private List<AIAnalysisResult> analyze(List<PendingComment> batch, long deadline)
+    {
+        // Запросы, до которых очередь дошла после дедлайна, не отправляем
+        if (System.currentTimeMillis() >= deadline) throw new CancellationException();
+
+        if (batch.size() == 1)
+        {
+            PendingComment item = batch.get(0);
+            return Collections.singletonList(aiService.analyze(
+                    item.comment.getContent(),
+                    item.comment.getWorkHours(),
+                    item.comment.getAuthor(),
+                    item.task.getName()
+            ));
         }
 
+        List<AIAnalysisService.CommentInput> inputs = new ArrayList<>(batch.size());
+        for (PendingComment item : batch)
+        {
+            inputs.add(new AIAnalysisService.CommentInput(item.comment.getId(), item.comment.getContent(),
+                    item.comment.getWorkHours(), item.comment.getAuthor(), item.task.getName()));
+        }
 
-        return violations;
+        return aiService.analyzeBatch(inputs);
+    }
+
+    private static class PendingComment
+    {
+        final Task task;
+        final Task.TaskComment comment;
+        final String authorName;
+
+        CommentPreScorer.Score preScore;
+        boolean local;
+        CompletableFuture<AIAnalysisResult> result;
+
+        PendingComment(Task task, Task.TaskComment comment, String authorName)
+        {
+            this.task = task;
+            this.comment = comment;
+            this.authorName = authorName;
+        }
     }
 
     private LocalDateTime convertToMsk(LocalDateTime dateTime)
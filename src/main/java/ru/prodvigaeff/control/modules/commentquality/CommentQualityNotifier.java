@@ -3,7 +3,6 @@ package ru.prodvigaeff.control.modules.commentquality;
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.service.EmailSender;
-import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
 import ru.prodvigaeff.control.utils.StringUtil;
 
@@ -89,14 +88,27 @@ public class CommentQualityNotifier
 
         AIAnalysisResult aiResult = violation.getAiResult();
         data.put("DETAIL_SCORE", String.valueOf(aiResult.getDetailScore()));
-        data.put("REALISM_SCORE", String.valueOf(aiResult.getRealismScore()));
         data.put("CONCRETE_SCORE", String.valueOf(aiResult.getConcreteScore()));
 
+        // Локальная оценка считается по формальным признакам: реалистичность не оценивается, и выдавать ее за оценку ИИ нельзя
+        if (aiResult.isLocal())
+        {
+            data.put("ASSESSMENT_INTRO", "Автоматическая проверка по формальным признакам (длина, конкретика, действия) оценила качество вашего комментария");
+            data.put("SCORES_TITLE", "Автоматическая оценка");
+            data.put("REALISM_SCORE", "не оценивалась");
+        }
+        else
+        {
+            data.put("ASSESSMENT_INTRO", "Система искусственного интеллекта оценила качество вашего комментария");
+            data.put("SCORES_TITLE", "Оценка искусственного интеллекта");
+            data.put("REALISM_SCORE", aiResult.getRealismScore() + "/10");
+        }
+
         data.put("TOTAL_SCORE", String.format(Locale.US, "%.1f", aiResult.getTotalScore()));
 
         data.put("AI_REASON", aiResult.getReason());
 
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
+        String baseUrl = MegaplanTask.getBaseUrl();
         data.put("TASK_URL", baseUrl + "/task/" + violation.getTask().getId() + "/card/");
 
         return data;
@@ -0,0 +1,85 @@
+package ru.prodvigaeff.control.modules.commentquality;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 64-битный SimHash текста по словам и парам соседних слов: у почти одинаковых текстов отпечатки
+ * отличаются в нескольких битах, поэтому похожесть оценивается расстоянием Хэмминга.
+ */
+public final class SimHash
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash()
+    {
+    }
+
+    public static long of(String text)
+    {
+        List<String> words = words(text);
+        if (words.isEmpty()) return 0L;
+
+        int[] weights = new int[64];
+        for (int i = 0; i < words.size(); i++)
+        {
+            add(weights, hash(words.get(i)));
+            if (i > 0) add(weights, hash(words.get(i - 1) + " " + words.get(i)));
+        }
+
+        long fingerprint = 0L;
+        for (int bit = 0; bit < 64; bit++)
+        {
+            if (weights[bit] > 0) fingerprint |= 1L << bit;
+        }
+
+        return fingerprint;
+    }
+
+    public static int distance(long a, long b)
+    {
+        return Long.bitCount(a ^ b);
+    }
+
+    // Регистр, пунктуация и HTML-остатки на смысл описания не влияют
+    private static List<String> words(String text)
+    {
+        List<String> words = new ArrayList<>();
+        if (text == null) return words;
+
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+        {
+            if (!word.isEmpty()) words.add(word);
+        }
+
+        return words;
+    }
+
+    private static void add(int[] weights, long featureHash)
+    {
+        for (int bit = 0; bit < 64; bit++)
+        {
+            weights[bit] += ((featureHash >>> bit) & 1L) != 0 ? 1 : -1;
+        }
+    }
+
+    private static long hash(String feature)
+    {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < feature.length(); i++)
+        {
+            hash ^= feature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        // FNV плохо перемешивает старшие биты, добиваем финализатором из MurmurHash3
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
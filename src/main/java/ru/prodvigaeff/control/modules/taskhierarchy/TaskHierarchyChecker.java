@@ -1,7 +1,9 @@
 package ru.prodvigaeff.control.modules.taskhierarchy;
 
 import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanTaskSnapshot;
 import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.model.TaskGraph;
 import ru.prodvigaeff.control.utils.Logger;
 
 import java.time.LocalDateTime;
@@ -17,7 +19,8 @@ public class TaskHierarchyChecker
     public List<TaskHierarchyViolation> checkViolations()
     {
         LocalDateTime now = LocalDateTime.now();
-        Set<Task> allTasks = MegaplanTask.getRecentTasksWithSubtasks();
+        TaskGraph graph = MegaplanTaskSnapshot.getGraph();
+        Set<Task> allTasks = graph.getTasks();
         List<TaskHierarchyViolation> violations = new ArrayList<>();
 
         LocalDateTime cutoffDate = now.minusHours(24);
@@ -29,11 +32,19 @@ public class TaskHierarchyChecker
         Logger.debug("Начинаем проверку дат создания задач и подзадач");
         Logger.debug("Всего задач: " + allTasks.size() + ", активных с подзадачами: " + recentTasks.size());
 
+        int fetchedFromApi = 0;
+
         for (Task parentTask : recentTasks)
         {
             for (String subtaskId : parentTask.getSubtaskIds())
             {
-                Task subtask = MegaplanTask.getTaskById(subtaskId);
+                Task subtask = graph.getById(subtaskId);
+                if (subtask == null)
+                {
+                    subtask = MegaplanTask.getTaskById(subtaskId);
+                    fetchedFromApi++;
+                }
+
                 if (subtask == null || subtask.getTimeCreated() == null) continue;
 
                 if (subtask.getTimeCreated().isBefore(parentTask.getTimeCreated()))
@@ -48,7 +59,7 @@ public class TaskHierarchyChecker
             }
         }
 
-        Logger.debug("Проверка завершена. Найдено нарушений: " + violations.size());
+        Logger.debug("Проверка завершена. Подзадач запрошено из API: " + fetchedFromApi + ", найдено нарушений: " + violations.size());
         return violations;
     }
 }
\ No newline at end of file
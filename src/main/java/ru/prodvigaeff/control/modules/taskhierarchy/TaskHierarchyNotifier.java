@@ -105,7 +105,7 @@ public class TaskHierarchyNotifier
 
     private String generateTaskUrl(String taskId)
     {
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
+        String baseUrl = MegaplanTask.getBaseUrl();
         return baseUrl + "/task/" + taskId + "/card/";
     }
 
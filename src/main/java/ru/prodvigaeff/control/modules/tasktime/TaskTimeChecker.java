@@ -1,6 +1,6 @@
 package ru.prodvigaeff.control.modules.tasktime;
 
-import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanTaskSnapshot;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
@@ -16,7 +16,7 @@ public class TaskTimeChecker
     {
         LocalDateTime now = LocalDateTime.now();
 
-        Set<Task> allTasks = MegaplanTask.getRecentTasksWithSubtasks();
+        Set<Task> allTasks = MegaplanTaskSnapshot.getTasks();
 
         LocalDateTime cutoffDate = now.minusHours(24);
         List<Task> recentTasks = allTasks.stream()
@@ -5,7 +5,6 @@ import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.modules.worktime.WorkTimeViolation;
 import ru.prodvigaeff.control.service.EmailSender;
 import ru.prodvigaeff.control.utils.DateUtil;
-import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
 import ru.prodvigaeff.control.utils.StringUtil;
 
@@ -79,7 +78,7 @@ public class TaskTimeNotifier
         data.put("TASK_NAME", violation.getName() != null ? violation.getName() : "Без названия");
         data.put("TASK_ID", violation.getId());
 
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
+        String baseUrl = MegaplanTask.getBaseUrl();
         data.put("TASK_URL", baseUrl + "/task/" + violation.getId() + "/card/");
 
         double plannedHours = violation.getPlannedWorkHours();
@@ -1,6 +1,6 @@
 package ru.prodvigaeff.control.modules.worktime;
 
-import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
+import ru.prodvigaeff.control.megaplan.managers.MegaplanTaskSnapshot;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.utils.DateUtil;
 import ru.prodvigaeff.control.utils.Logger;
@@ -15,7 +15,7 @@ public class WorkTimeChecker
 {
     public List<WorkTimeViolation> checkViolations(LocalDateTime currentTime)
     {
-        Set<Task> tasks = MegaplanTask.getRecentTasksWithSubtasks();
+        Set<Task> tasks = MegaplanTaskSnapshot.getTasks();
         List<WorkTimeViolation> violations = new ArrayList<>();
 
         ZonedDateTime currentMsk = currentTime.atZone(DateUtil.MSK_ZONE);
@@ -4,7 +4,6 @@ import ru.prodvigaeff.control.megaplan.managers.MegaplanTask;
 import ru.prodvigaeff.control.model.Task;
 import ru.prodvigaeff.control.service.EmailSender;
 import ru.prodvigaeff.control.utils.DateUtil;
-import ru.prodvigaeff.control.utils.EnvUtil;
 import ru.prodvigaeff.control.utils.Logger;
 import ru.prodvigaeff.control.utils.StringUtil;
 
@@ -81,7 +80,7 @@ public class WorkTimeNotifier
         data.put("comment_id", violation.getComment().getId());
         data.put("comment_context", StringUtil.isNotEmpty(violation.getComment().getContent()) ? StringUtil.truncate(violation.getComment().getContent(), 200) : "Содержимое отсутствует");
 
-        String baseUrl = EnvUtil.get("MEGAPLAN_URL", "https://prodvigaeff.megaplan.ru");
+        String baseUrl = MegaplanTask.getBaseUrl();
         data.put("task_url", baseUrl + "/task/" + violation.getTask().getId() + "/card/");
 
         return data;
@@ -59,6 +59,21 @@ public class EnvUtil
         }
     }
 
+    public static double getDouble(String key, double defaultValue)
+    {
+        String value = get(key);
+        if (value == null) return defaultValue;
+
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+
     public static boolean getBoolean(String key, boolean defaultValue)
     {
         String value = get(key);
@@ -3,6 +3,9 @@ package ru.prodvigaeff.control.utils;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
 
 public class JsonUtil
 {
@@ -66,6 +69,14 @@ public class JsonUtil
         }
     }
 
+    /**
+     * Потоковый парсер для ответов, которые удобнее читать по токенам, не строя дерево объектов.
+     */
+    public static JsonParser createParser(byte[] json) throws IOException
+    {
+        return mapper.getFactory().createParser(json);
+    }
+
     public static boolean isValidJson(String json)
     {
         if (StringUtil.isEmpty(json)) return false;
@@ -1,5 +1,7 @@
 package ru.prodvigaeff.control.utils;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -37,10 +39,11 @@ public class Logger
         if (body != null && !body.isEmpty()) debug("BODY", body);
     }
 
-    public static void debugResponse(int code, String response)
+    public static void debugResponse(int code, byte[] response, Charset charset)
     {
-        debug("RESPONSE", "HTTP " + code + " длина: " + (response != null ? response.length() : 0));
-        if (response != null && response.length() < 500) debug("RESPONSE_BODY", response);
+        debug("RESPONSE", "HTTP " + code + " длина: " + (response != null ? response.length : 0) + " байт");
+        if (response != null && response.length < 500)
+            debug("RESPONSE_BODY", new String(response, charset != null ? charset : StandardCharsets.UTF_8));
     }
 
     public static void info(String message)
@@ -0,0 +1,202 @@
+package ru.prodvigaeff.control.megaplan.managers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.prodvigaeff.control.model.Task;
+import ru.prodvigaeff.control.utils.DateUtil;
+import ru.prodvigaeff.control.utils.StringUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Сравнение потокового разбора страницы задач (MegaplanJsonReader) с прежним разбором через дерево Map.
+ * Сначала проверяет, что оба способа дают одинаковые задачи, затем замеряет время и выделенную память на страницу.
+ * <p>
+ * Запуск: gradle parseBenchmark [-Ppage=путь к ответу /task]
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ParseBenchmark
+{
+    private static final String DEFAULT_PAGE = "megaplan/task-page.json";
+    private static final int WARMUP_ITERATIONS = 3000;
+    private static final int ITERATIONS = 5000;
+    private static final int ROUNDS = 5;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws IOException
+    {
+        byte[] page = args.length > 0 ? Files.readAllBytes(Paths.get(args[0])) : readDefaultPage();
+
+        List<Task> mapTasks = mapParse(page);
+        List<Task> streamTasks = MegaplanJsonReader.readTaskPage(page).items;
+        assertSameTasks(mapTasks, streamTasks);
+
+        System.out.printf("Страница: %d задач, %d КБ, JDK %s, разбор совпадает%n",
+                streamTasks.size(), page.length / 1024, System.getProperty("java.version"));
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+        {
+            mapParse(page);
+            MegaplanJsonReader.readTaskPage(page);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int round = 1; round <= ROUNDS; round++)
+        {
+            long allocStart = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) mapParse(page);
+            long mapEnd = System.nanoTime();
+            long allocMap = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ITERATIONS; i++) MegaplanJsonReader.readTaskPage(page);
+            long streamEnd = System.nanoTime();
+            long allocStream = threads.getThreadAllocatedBytes(threadId);
+
+            System.out.printf("Раунд %d: Map %.3f мс, %.0f КБ на страницу | потоковый %.3f мс, %.0f КБ на страницу%n", round,
+                    (mapEnd - start) / 1e6 / ITERATIONS, (allocMap - allocStart) / 1024.0 / ITERATIONS,
+                    (streamEnd - mapEnd) / 1e6 / ITERATIONS, (allocStream - allocMap) / 1024.0 / ITERATIONS);
+        }
+    }
+
+    private static byte[] readDefaultPage() throws IOException
+    {
+        try (InputStream in = ParseBenchmark.class.getClassLoader().getResourceAsStream(DEFAULT_PAGE))
+        {
+            if (in == null) throw new IOException("Страница " + DEFAULT_PAGE + " не найдена");
+            return in.readAllBytes();
+        }
+    }
+
+    private static void assertSameTasks(List<Task> expected, List<Task> actual)
+    {
+        if (expected.size() != actual.size())
+        {
+            throw new IllegalStateException("Разное число задач: Map " + expected.size() + ", потоковый " + actual.size());
+        }
+
+        for (int i = 0; i < expected.size(); i++)
+        {
+            Task a = expected.get(i);
+            Task b = actual.get(i);
+            boolean same = Objects.equals(a.getId(), b.getId())
+                    && Objects.equals(a.getName(), b.getName())
+                    && Objects.equals(a.getStatus(), b.getStatus())
+                    && Objects.equals(a.getTimeCreated(), b.getTimeCreated())
+                    && Objects.equals(a.getActivity(), b.getActivity())
+                    && a.getPlannedWorkHours() == b.getPlannedWorkHours()
+                    && a.getActualWorkHours() == b.getActualWorkHours()
+                    && Objects.equals(a.getSubtaskIds(), b.getSubtaskIds())
+                    && sameEmployee(a.getOwner(), b.getOwner())
+                    && sameEmployee(a.getResponsible(), b.getResponsible());
+            if (!same) throw new IllegalStateException("Задача " + a.getId() + " разобрана по-разному");
+        }
+    }
+
+    private static boolean sameEmployee(Task.Employee a, Task.Employee b)
+    {
+        if (a == null || b == null) return a == b;
+
+        Task.Department da = a.getDepartment();
+        Task.Department db = b.getDepartment();
+        boolean sameDepartment = da == null || db == null
+                ? da == db
+                : Objects.equals(da.getId(), db.getId()) && Objects.equals(da.getName(), db.getName());
+
+        return Objects.equals(a.getId(), b.getId())
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getEmail(), b.getEmail())
+                && Objects.equals(a.getPosition(), b.getPosition())
+                && sameDepartment;
+    }
+
+    // Прежний разбор: ответ целиком в дерево Map, затем поля из него
+
+    private static List<Task> mapParse(byte[] json) throws IOException
+    {
+        Map<String, Object> response = mapper.readValue(json, Map.class);
+        List<Map<String, Object>> data = (List) response.get("data");
+
+        List<Task> tasks = new ArrayList<>();
+        for (Map<String, Object> taskData : data)
+        {
+            Task task = parseTask(taskData);
+            if (task != null) tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private static Task parseTask(Map<String, Object> taskData)
+    {
+        String id = (String) taskData.get("id");
+        if (StringUtil.isEmpty(id)) return null;
+
+        Task task = new Task(id, (String) taskData.get("name"), (String) taskData.get("status"),
+                parseEmployee((Map) taskData.get("owner")), parseEmployee((Map) taskData.get("responsible")));
+        task.setTimeCreated(parseDateTime((Map) taskData.get("timeCreated")));
+        task.setActivity(parseDateTime((Map) taskData.get("activity")));
+        task.setPlannedWorkHours(parseWorkHours((Map) taskData.get("plannedWork")));
+        task.setActualWorkHours(parseWorkHours((Map) taskData.get("actualWork")));
+
+        if (taskData.containsKey("subTasks"))
+        {
+            List<Map<String, Object>> subTasks = (List<Map<String, Object>>) taskData.get("subTasks");
+            task.setSubtaskIds(subTasks.stream()
+                    .map(sub -> (String) sub.get("id"))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList()));
+        }
+        return task;
+    }
+
+    private static Task.Employee parseEmployee(Map<String, Object> empData)
+    {
+        if (empData == null) return null;
+
+        Task.Department department = null;
+        Map<String, Object> deptData = (Map) empData.get("department");
+        if (deptData != null && deptData.get("id") != null && deptData.get("name") != null)
+        {
+            department = new Task.Department((String) deptData.get("id"), (String) deptData.get("name"));
+        }
+
+        return new Task.Employee((String) empData.get("id"), (String) empData.get("name"),
+                findEmail((List) empData.get("contactInfo")), (String) empData.get("position"), department);
+    }
+
+    private static String findEmail(List<Map<String, Object>> contactInfo)
+    {
+        if (contactInfo == null) return "не найдено";
+
+        return contactInfo.stream()
+                .filter(contact -> "email".equals(contact.get("type")))
+                .map(contact -> (String) contact.get("value"))
+                .filter(StringUtil::isNotEmpty)
+                .filter(email -> StringUtil.isValidCompanyEmail(email, "prodvigaeff.ru"))
+                .findFirst()
+                .orElse("не найдено");
+    }
+
+    private static LocalDateTime parseDateTime(Map<String, Object> dateTimeData)
+    {
+        if (dateTimeData == null || dateTimeData.get("value") == null) return null;
+        return DateUtil.parseIsoToMsk((String) dateTimeData.get("value"));
+    }
+
+    private static double parseWorkHours(Map<String, Object> workTimeData)
+    {
+        Object value = workTimeData != null ? workTimeData.get("value") : null;
+        return value instanceof Number ? ((Number) value).doubleValue() / 3600.0 : 0.0;
+    }
+}
@@ -0,0 +1,72 @@
+package ru.prodvigaeff.control.modules.commentquality;
+
+import ru.prodvigaeff.control.utils.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Сверка порогов CommentPreScorer с вердиктами AI, накопленными в AI_PRESCORE_SAMPLE_FILE.
+ * Строка выборки - вердикт AI, часы и текст комментария через табуляцию.
+ * <p>
+ * Запуск: gradle preScoreCheck [-Psample=файл], по умолчанию data/prescore-sample.tsv
+ */
+public class PreScoreCheck
+{
+    private static final String DEFAULT_SAMPLE = "data/prescore-sample.tsv";
+
+    public static void main(String[] args) throws IOException
+    {
+        Path sample = Paths.get(args.length > 0 ? args[0] : DEFAULT_SAMPLE);
+        if (!Files.exists(sample))
+        {
+            throw new IOException("Выборка " + sample + " не найдена: она накапливается при AI_PRESCORE_MODE=shadow или on");
+        }
+
+        // readAllLines разбивает и по \r\n, поэтому файл, сохраненный в Windows, читается так же
+        List<String> lines = Files.readAllLines(sample, StandardCharsets.UTF_8);
+        CommentPreScorer scorer = new CommentPreScorer(CommentPreScorer.Mode.SHADOW, 0);
+
+        int total = 0;
+        int decided = 0;
+        int agreed = 0;
+        int falseFails = 0;
+        int missedFails = 0;
+
+        for (String line : lines)
+        {
+            if (line.isBlank() || line.startsWith("#")) continue;
+
+            String[] parts = line.split("\t", 3);
+            if (parts.length < 3)
+            {
+                Logger.warn("Пропущена строка без вердикта, часов или текста: " + line);
+                continue;
+            }
+
+            CommentPreScorer.Verdict expected = CommentPreScorer.Verdict.valueOf(parts[0].trim());
+            CommentPreScorer.Score score = scorer.score(parts[2], Double.parseDouble(parts[1].trim()));
+            total++;
+
+            if (score.getVerdict() == CommentPreScorer.Verdict.UNCERTAIN) continue;
+
+            decided++;
+            if (score.getVerdict() == expected)
+            {
+                agreed++;
+                continue;
+            }
+
+            if (score.getVerdict() == CommentPreScorer.Verdict.FAIL) falseFails++;
+            else missedFails++;
+            Logger.warn("Расхождение: AI " + expected + ", локально " + score.getVerdict() + " (" + score.getReason() + "): " + parts[2]);
+        }
+
+        Logger.info(String.format("Выборка: %d комментариев, решено локально %d (%.0f%%), совпало с AI %d из %d, лишних FAIL %d, пропущенных FAIL %d",
+                total, decided, total == 0 ? 0.0 : decided * 100.0 / total, agreed, decided, falseFails, missedFails));
+    }
+}